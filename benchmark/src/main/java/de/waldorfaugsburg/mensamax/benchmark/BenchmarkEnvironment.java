@@ -0,0 +1,179 @@
+package de.waldorfaugsburg.mensamax.benchmark;
+
+import de.waldorfaugsburg.mensamax.server.MensaMaxServerApplication;
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngineType;
+import de.waldorfaugsburg.mensamax.simulator.MensaMaxSimulator;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedPerson;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedProduct;
+import lombok.Getter;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A server wired against a local {@link MensaMaxSimulator} and an in-memory database, so benchmarks never touch the
+ * real MensaMax. Browsers are started headless from the geckodriver given by the {@code benchmark.geckodriver}
+ * system property.
+ */
+@Getter
+public final class BenchmarkEnvironment implements Closeable {
+
+    private static final String GECKODRIVER_PROPERTY = "benchmark.geckodriver";
+    private static final String DEFAULT_GECKODRIVER_PATH = "/usr/local/bin/geckodriver";
+
+    private final MensaMaxSimulator simulator;
+    private final ConfigurableApplicationContext context;
+    private final String apiKey;
+
+    private BenchmarkEnvironment(final MensaMaxSimulator simulator, final ConfigurableApplicationContext context, final String apiKey) {
+        this.simulator = simulator;
+        this.context = context;
+        this.apiKey = apiKey;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public <T> T getBean(final Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public List<SimulatedPerson> getPersons() {
+        return simulator.getPersons();
+    }
+
+    public String getServerUrl() {
+        return "http://127.0.0.1:" + context.getEnvironment().getProperty("local.server.port") + "/";
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        simulator.close();
+    }
+
+    public static List<SimulatedPerson> generatePersons(final int count) {
+        final List<SimulatedPerson> persons = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            persons.add(new SimulatedPerson("benchmark.user" + i, "Benchmark", "User " + i, "benchmark.user" + i + "@example.org",
+                    "", "01.01.2012", "Klasse 5", 10_000 + i, String.format("%010d", 5_000_000 + i)));
+        }
+        return persons;
+    }
+
+    public static List<SimulatedProduct> generateProducts(final int count) {
+        final List<SimulatedProduct> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(new SimulatedProduct(4_100_000_000_000L + i, "Benchmark product " + i, true));
+        }
+        return products;
+    }
+
+    public static final class Builder {
+
+        private int personCount = 100;
+        private int productCount = 0;
+        private Duration latency = Duration.ZERO;
+        private int clientCount = 1;
+        private int maxClientCount = 0;
+        private UserLookupEngineType lookupEngine = UserLookupEngineType.SELENIUM;
+        private boolean asyncIntake;
+        private final Map<String, Object> properties = new HashMap<>();
+
+        private Builder() {
+        }
+
+        public Builder personCount(final int personCount) {
+            this.personCount = personCount;
+            return this;
+        }
+
+        /**
+         * Number of generated products, zero serves the default products of the simulator.
+         */
+        public Builder productCount(final int productCount) {
+            this.productCount = productCount;
+            return this;
+        }
+
+        /**
+         * Latency of every simulated MensaMax request, zero measures nothing but our own overhead.
+         */
+        public Builder latency(final Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Number of browsers started with the server. Zero with a maximum of zero keeps benchmarks which only need the
+         * database from starting any browser.
+         */
+        public Builder clients(final int clientCount, final int maxClientCount) {
+            this.clientCount = clientCount;
+            this.maxClientCount = maxClientCount;
+            return this;
+        }
+
+        public Builder lookupEngine(final UserLookupEngineType lookupEngine) {
+            this.lookupEngine = lookupEngine;
+            return this;
+        }
+
+        public Builder asyncIntake(final boolean asyncIntake) {
+            this.asyncIntake = asyncIntake;
+            return this;
+        }
+
+        public Builder property(final String key, final Object value) {
+            properties.put(key, value);
+            return this;
+        }
+
+        public BenchmarkEnvironment start() throws IOException {
+            final MensaMaxSimulator simulator = productCount > 0
+                    ? new MensaMaxSimulator(0, latency, generatePersons(personCount), generateProducts(productCount))
+                    : new MensaMaxSimulator(0, latency, generatePersons(personCount));
+            simulator.start();
+
+            final Map<String, Object> serverProperties = new HashMap<>();
+            serverProperties.put("server.port", 0);
+            final String apiKey = UUID.randomUUID().toString();
+            serverProperties.put("auth.api-key", apiKey);
+            serverProperties.put("spring.datasource.url", "jdbc:h2:mem:benchmark-" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+            serverProperties.put("mensamax.url", simulator.getUrl());
+            serverProperties.put("mensamax.project-id", "benchmark");
+            serverProperties.put("mensamax.facility-id", "benchmark");
+            serverProperties.put("mensamax.username", "benchmark");
+            serverProperties.put("mensamax.password", "benchmark");
+            serverProperties.put("mensamax.client-count", clientCount);
+            serverProperties.put("mensamax.max-client-count", maxClientCount);
+            serverProperties.put("mensamax.lookup-engine", lookupEngine.name());
+            serverProperties.put("selenium.driver-path", System.getProperty(GECKODRIVER_PROPERTY, DEFAULT_GECKODRIVER_PATH));
+            serverProperties.put("selenium.profile-path", Files.createTempDirectory("mensamax-benchmark").resolve("profile").toString());
+            serverProperties.put("transaction.async-intake", asyncIntake);
+            serverProperties.put("transaction.batch-window", "0s");
+            // The directory would answer lookups before MensaMax is ever asked
+            serverProperties.put("directory.sync-enabled", false);
+            serverProperties.putAll(properties);
+
+            try {
+                final ConfigurableApplicationContext context = new SpringApplicationBuilder(MensaMaxServerApplication.class)
+                        .properties(serverProperties).run();
+                return new BenchmarkEnvironment(simulator, context, apiKey);
+            } catch (final RuntimeException e) {
+                simulator.close();
+                throw e;
+            }
+        }
+    }
+}
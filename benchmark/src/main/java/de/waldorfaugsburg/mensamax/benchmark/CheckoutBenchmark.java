@@ -0,0 +1,76 @@
+package de.waldorfaugsburg.mensamax.benchmark;
+
+import de.waldorfaugsburg.mensamax.server.service.TransactionService;
+import de.waldorfaugsburg.mensamax.simulator.MensaMaxSimulator;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedPerson;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedProduct;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A sale from recording until the browser paid for it. This includes waiting for the next run of the transaction
+ * workers, just like a kiosk waits for it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 20)
+@Measurement(iterations = 5, time = 20)
+@Fork(1)
+public class CheckoutBenchmark {
+
+    private static final long POLL_INTERVAL_MILLIS = 5;
+
+    @Param({"1", "3"})
+    private int quantity;
+
+    @Param({"false", "true"})
+    private boolean switchKiosk;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    private BenchmarkEnvironment environment;
+    private TransactionService transactionService;
+    private List<SimulatedPerson> persons;
+    private long barcode;
+    private int nextPerson;
+
+    @Setup(Level.Trial)
+    public void startEnvironment() throws IOException {
+        environment = BenchmarkEnvironment.builder().personCount(50).latency(Duration.ofMillis(latencyMillis)).clients(1, 1).start();
+        transactionService = environment.getBean(TransactionService.class);
+        persons = environment.getPersons();
+        barcode = environment.getSimulator().getProducts().stream().filter(SimulatedProduct::inStock).findFirst().orElseThrow().barcode();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopEnvironment() {
+        environment.close();
+    }
+
+    @Benchmark
+    public MensaMaxTransaction recordAndPerform() throws InterruptedException {
+        final int personIndex = nextPerson;
+        nextPerson = (nextPerson + 1) % persons.size();
+
+        final String kiosk = MensaMaxSimulator.KIOSKS.get(switchKiosk ? personIndex % MensaMaxSimulator.KIOSKS.size() : 0);
+        final MensaMaxTransaction recordedTransaction = transactionService.recordTransaction(persons.get(personIndex).chip(), kiosk, barcode, quantity);
+        while (true) {
+            final MensaMaxTransaction transaction = transactionService.fetchTransactionById(recordedTransaction.getId());
+            if (transaction.getStatus() != TransactionStatus.PENDING && transaction.getStatus() != TransactionStatus.PROCESSING) {
+                if (transaction.getStatus() != TransactionStatus.SUCCESS) {
+                    throw new IllegalStateException("Transaction failed with " + transaction.getError());
+                }
+                return transaction;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package de.waldorfaugsburg.mensamax.benchmark;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxChipEntity;
+import de.waldorfaugsburg.mensamax.server.repository.ChipRepository;
+import de.waldorfaugsburg.mensamax.server.service.TransactionService;
+import de.waldorfaugsburg.mensamax.simulator.MensaMaxSimulator;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedPerson;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.TransactionRequest;
+import de.waldorfaugsburg.mensamax.transaction.TransactionResult;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * How many sales the server accepts per second with asynchronous intake. All chips are indexed up front, so this
+ * measures recording alone. The workers keep performing the recorded sales in the background meanwhile.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+@Threads(4)
+public class IntakeBenchmark {
+
+    private static final long BARCODE = 4000000000017L;
+    private static final int BATCH_SIZE = 50;
+
+    private BenchmarkEnvironment environment;
+    private TransactionService transactionService;
+    private List<SimulatedPerson> persons;
+
+    @Setup(Level.Trial)
+    public void startEnvironment() throws IOException {
+        environment = BenchmarkEnvironment.builder().personCount(500).clients(0, 1).asyncIntake(true).start();
+        transactionService = environment.getBean(TransactionService.class);
+        persons = environment.getPersons();
+
+        final List<MensaMaxChipEntity> chips = new ArrayList<>();
+        for (final SimulatedPerson person : persons) {
+            chips.add(new MensaMaxChipEntity(person.chip(), person.username(), Instant.now()));
+        }
+        environment.getBean(ChipRepository.class).saveAll(chips);
+    }
+
+    @TearDown(Level.Trial)
+    public void stopEnvironment() {
+        environment.close();
+    }
+
+    @Benchmark
+    public MensaMaxTransaction recordTransaction() {
+        return transactionService.recordTransaction(randomPerson().chip(), MensaMaxSimulator.KIOSKS.getFirst(), BARCODE, 1);
+    }
+
+    @Benchmark
+    public MensaMaxTransaction recordIdempotentTransaction() {
+        return transactionService.recordTransaction(randomPerson().chip(), MensaMaxSimulator.KIOSKS.getFirst(), BARCODE, 1, UUID.randomUUID().toString());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public List<TransactionResult> recordTransactionBatch() {
+        final List<TransactionRequest> requests = new ArrayList<>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            requests.add(new TransactionRequest(randomPerson().chip(), MensaMaxSimulator.KIOSKS.getFirst(), BARCODE, 1, UUID.randomUUID().toString()));
+        }
+        return transactionService.recordTransactions(requests);
+    }
+
+    private SimulatedPerson randomPerson() {
+        return persons.get(ThreadLocalRandom.current().nextInt(persons.size()));
+    }
+}
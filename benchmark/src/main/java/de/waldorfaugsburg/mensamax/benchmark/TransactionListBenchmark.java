@@ -0,0 +1,100 @@
+package de.waldorfaugsburg.mensamax.benchmark;
+
+import de.waldorfaugsburg.mensamax.server.controller.TransactionController;
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.server.repository.TransactionRepository;
+import de.waldorfaugsburg.mensamax.server.service.TransactionExportFormat;
+import de.waldorfaugsburg.mensamax.server.service.TransactionExportService;
+import de.waldorfaugsburg.mensamax.simulator.MensaMaxSimulator;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransactionPage;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.http.ResponseEntity;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Listing and exporting transactions with a large history. Only the database is involved, no browser is started.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class TransactionListBenchmark {
+
+    private static final int INSERT_CHUNK_SIZE = 1000;
+    private static final int PAGE_SIZE = 100;
+
+    @Param({"10000", "100000"})
+    private int rowCount;
+
+    private BenchmarkEnvironment environment;
+    private TransactionController transactionController;
+    private TransactionExportService transactionExportService;
+
+    @Setup(Level.Trial)
+    public void startEnvironment() throws IOException {
+        environment = BenchmarkEnvironment.builder().personCount(1).clients(0, 0).start();
+        transactionController = environment.getBean(TransactionController.class);
+        transactionExportService = environment.getBean(TransactionExportService.class);
+
+        // Only finished transactions, otherwise the workers would start picking them up
+        final TransactionRepository repository = environment.getBean(TransactionRepository.class);
+        final Instant firstRecordedAt = Instant.now().minus(Duration.ofDays(365));
+        final List<MensaMaxTransactionEntity> chunk = new ArrayList<>(INSERT_CHUNK_SIZE);
+        for (int i = 0; i < rowCount; i++) {
+            final MensaMaxTransactionEntity entity = new MensaMaxTransactionEntity();
+            entity.setUsername("benchmark.user" + (i % 500));
+            entity.setChip(String.format("%010d", 5_000_000 + i % 500));
+            entity.setKiosk(MensaMaxSimulator.KIOSKS.get(i % MensaMaxSimulator.KIOSKS.size()));
+            entity.setBarcode(4000000000017L + i % 20);
+            entity.setQuantity(1);
+            entity.setStatus(i % 10 == 0 ? TransactionStatus.FAILED : TransactionStatus.SUCCESS);
+            entity.setRecordedAt(firstRecordedAt.plusSeconds(i * 60L));
+            chunk.add(entity);
+            if (chunk.size() == INSERT_CHUNK_SIZE || i == rowCount - 1) {
+                repository.insertAll(chunk);
+                chunk.clear();
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopEnvironment() {
+        environment.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<MensaMaxTransactionPage> firstPage() {
+        return transactionController.fetchTransactions(null, null, null, null, null, null, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public ResponseEntity<MensaMaxTransactionPage> lastPage() {
+        return transactionController.fetchTransactions(null, null, null, null, null, null, (long) rowCount - PAGE_SIZE, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public ResponseEntity<MensaMaxTransactionPage> filteredByStatus() {
+        return transactionController.fetchTransactionsByStatus(TransactionStatus.FAILED, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public ResponseEntity<MensaMaxTransactionPage> filteredByUsername() {
+        return transactionController.fetchTransactions(null, null, null, null, "benchmark.user42", null, null, PAGE_SIZE);
+    }
+
+    @Benchmark
+    public void exportAll() throws IOException {
+        transactionExportService.exportTransactions(new TransactionFilter(), TransactionExportFormat.NDJSON, OutputStream.nullOutputStream());
+    }
+}
@@ -0,0 +1,76 @@
+package de.waldorfaugsburg.mensamax.benchmark;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngineType;
+import de.waldorfaugsburg.mensamax.server.service.MensaMaxService;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedPerson;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * User lookups with cold caches, which always ask MensaMax, and with warm caches, which never should.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class UserLookupBenchmark {
+
+    @Param({"HTTP", "SELENIUM"})
+    private UserLookupEngineType lookupEngine;
+
+    @Param({"0", "20"})
+    private int latencyMillis;
+
+    private BenchmarkEnvironment environment;
+    private MensaMaxService mensaMaxService;
+    private List<SimulatedPerson> persons;
+    private int nextPerson;
+
+    @Setup(Level.Trial)
+    public void startEnvironment() throws IOException {
+        environment = BenchmarkEnvironment.builder().personCount(200).latency(Duration.ofMillis(latencyMillis))
+                .clients(1, 1).lookupEngine(lookupEngine).start();
+        mensaMaxService = environment.getBean(MensaMaxService.class);
+        persons = environment.getPersons();
+    }
+
+    @TearDown(Level.Trial)
+    public void stopEnvironment() {
+        environment.close();
+    }
+
+    @Benchmark
+    public MensaMaxUser coldLookupByUsername() {
+        // Bypasses the caches and the directory, so every call is a real lookup
+        return mensaMaxService.findUserByUsername(nextPerson().username());
+    }
+
+    @Benchmark
+    public MensaMaxUser coldLookupByEmployeeId() {
+        return mensaMaxService.findUserByEmployeeId(nextPerson().employeeId());
+    }
+
+    @Benchmark
+    public String coldLookupByChip() {
+        return mensaMaxService.findUsernameByChip(nextPerson().chip());
+    }
+
+    @Benchmark
+    public MensaMaxUser warmLookupByUsername() {
+        // Only the first round through all persons misses, which the warmup takes care of
+        return mensaMaxService.getUserByUsername(nextPerson().username());
+    }
+
+    private SimulatedPerson nextPerson() {
+        final SimulatedPerson person = persons.get(nextPerson);
+        nextPerson = (nextPerson + 1) % persons.size();
+        return person;
+    }
+}
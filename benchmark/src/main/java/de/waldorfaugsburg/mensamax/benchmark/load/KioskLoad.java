@@ -0,0 +1,102 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import de.waldorfaugsburg.mensamax.client.MensaMaxClient;
+import de.waldorfaugsburg.mensamax.client.api.ApiException;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A single kiosk scanning with exponentially distributed pauses, so the sales of all kiosks add up to a Poisson
+ * process. Scans are sent at the time they are due even if the previous one took longer, and their latency is taken
+ * from that time, so an overloaded server can't hide behind slow kiosks.
+ */
+@Slf4j
+final class KioskLoad implements Runnable {
+
+    private final String kiosk;
+    private final MensaMaxClient client;
+    private final LoadTestOptions options;
+    private final SplittableRandom random;
+    private final List<String> chips;
+    private final List<Long> barcodes;
+    private final ZipfDistribution chipDistribution;
+    private final ZipfDistribution barcodeDistribution;
+    private final long startNanos;
+    private final long endNanos;
+
+    private final Results results;
+
+    KioskLoad(final String kiosk, final MensaMaxClient client, final LoadTestOptions options, final long seed,
+              final List<String> chips, final List<Long> barcodes, final ZipfDistribution chipDistribution,
+              final ZipfDistribution barcodeDistribution, final long startNanos, final Results results) {
+        this.kiosk = kiosk;
+        this.client = client;
+        this.options = options;
+        this.random = new SplittableRandom(seed);
+        this.chips = chips;
+        this.barcodes = barcodes;
+        this.chipDistribution = chipDistribution;
+        this.barcodeDistribution = barcodeDistribution;
+        this.startNanos = startNanos;
+        this.endNanos = startNanos + TimeUnit.SECONDS.toNanos(options.durationSeconds());
+        this.results = results;
+    }
+
+    @Override
+    public void run() {
+        long dueNanos = startNanos;
+        while (!Thread.currentThread().isInterrupted()) {
+            dueNanos += nextPauseNanos(dueNanos - startNanos);
+            if (dueNanos >= endNanos) {
+                return;
+            }
+
+            final String chip = chips.get(chipDistribution.sample(random));
+            final long barcode = barcodes.get(barcodeDistribution.sample(random));
+            final int quantity = random.nextDouble() < options.multipleQuantityShare() ? 2 + random.nextInt(2) : 1;
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(dueNanos - System.nanoTime());
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            results.sentCount.incrementAndGet();
+            try {
+                client.transaction(chip, kiosk, barcode, quantity);
+                results.intakeLatencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - dueNanos));
+            } catch (final ApiException e) {
+                final String code = e.getError() != null ? e.getError().getCode() : e.getCause().getClass().getSimpleName();
+                results.intakeErrors.computeIfAbsent(code, key -> new LongAdder()).increment();
+                log.debug("Scan at kiosk '{}' failed with {}", kiosk, code);
+            }
+        }
+    }
+
+    private long nextPauseNanos(final long elapsedNanos) {
+        final long burstIntervalNanos = TimeUnit.SECONDS.toNanos(options.burstIntervalSeconds());
+        final boolean burst = burstIntervalNanos > 0 && elapsedNanos % burstIntervalNanos < TimeUnit.SECONDS.toNanos(options.burstDurationSeconds());
+        final double scansPerNano = options.scansPerMinute() * (burst ? options.burstFactor() : 1) / TimeUnit.MINUTES.toNanos(1);
+        return (long) (-Math.log(1 - random.nextDouble()) / scansPerNano);
+    }
+
+    /**
+     * What all kiosks observed, shared between their threads.
+     */
+    static final class Results {
+
+        final AtomicLong sentCount = new AtomicLong();
+        final List<Long> intakeLatencies = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, LongAdder> intakeErrors = new ConcurrentHashMap<>();
+    }
+}
@@ -0,0 +1,9 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+/**
+ * State of the server at a point of the run. Obtain timeouts add up over the run, they are what makes kiosks see
+ * NO_CLIENTS_AVAILABLE.
+ */
+public record LoadSample(long elapsedMillis, long sentCount, long backlog, long inFlight, long busyClients, long idleClients,
+                         long waitingRequests, long obtainTimeouts) {
+}
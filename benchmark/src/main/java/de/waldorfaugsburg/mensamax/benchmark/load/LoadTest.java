@@ -0,0 +1,133 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import de.waldorfaugsburg.mensamax.benchmark.BenchmarkEnvironment;
+import de.waldorfaugsburg.mensamax.client.MensaMaxClient;
+import de.waldorfaugsburg.mensamax.simulator.MensaMaxSimulator;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedPerson;
+import de.waldorfaugsburg.mensamax.simulator.SimulatedProduct;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Replays lunch rush traffic of many kiosks against a server wired to the MensaMax simulator. Once all scans are sent
+ * it waits for the backlog to drain and writes a report of intake latency, time until performed and the backlog and
+ * client pool over time.
+ */
+@Slf4j
+public final class LoadTest {
+
+    private static final Gson GSON = new GsonBuilder().setPrettyPrinting().create();
+
+    private LoadTest() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final LoadTestOptions options = LoadTestOptions.parse(args);
+        try (final BenchmarkEnvironment environment = BenchmarkEnvironment.builder()
+                .personCount(options.persons())
+                .productCount(options.products())
+                .latency(Duration.ofMillis(options.latencyMillis()))
+                .clients(options.clientCount(), options.maxClientCount())
+                .asyncIntake(options.asyncIntake())
+                .start()) {
+            final LoadTestReport report = run(environment, options);
+            try (final Writer writer = Files.newBufferedWriter(Path.of(options.reportPath()), StandardCharsets.UTF_8)) {
+                GSON.toJson(report, writer);
+            }
+
+            log.info("Sent {} scans ({}/min), intake {}, performed {}, unfinished {}, intake errors {}", report.sentCount(),
+                    Math.round(report.sentPerMinute()), report.intakeLatency(), report.performedLatency(), report.unfinishedCount(), report.intakeErrors());
+            log.info("Report written to {}", options.reportPath());
+        }
+    }
+
+    private static LoadTestReport run(final BenchmarkEnvironment environment, final LoadTestOptions options) throws InterruptedException, IOException {
+        final MensaMaxClient client = new MensaMaxClient(environment.getServerUrl(), environment.getApiKey());
+        final List<String> chips = environment.getPersons().stream().map(SimulatedPerson::chip).toList();
+        final List<Long> barcodes = environment.getSimulator().getProducts().stream().filter(SimulatedProduct::inStock).map(SimulatedProduct::barcode).toList();
+
+        // Every kiosk gets its own random generator derived from the seed, so thread timing doesn't change the sales
+        final SplittableRandom seedRandom = new SplittableRandom(options.seed());
+        final ZipfDistribution chipDistribution = new ZipfDistribution(chips.size(), options.zipfExponent());
+        final ZipfDistribution barcodeDistribution = new ZipfDistribution(barcodes.size(), options.zipfExponent());
+        final KioskLoad.Results results = new KioskLoad.Results();
+
+        final Date startDate = new Date();
+        final long startNanos = System.nanoTime();
+        final MetricsSampler sampler = new MetricsSampler(environment.getServerUrl(), environment.getApiKey(), results.sentCount::get, startNanos);
+        final ScheduledExecutorService samplerExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("load-sampler").build());
+        samplerExecutor.scheduleAtFixedRate(sampler::sample, 0, options.sampleIntervalMillis(), TimeUnit.MILLISECONDS);
+
+        final ExecutorService kioskExecutor = Executors.newFixedThreadPool(options.kiosks(), new ThreadFactoryBuilder().setNameFormat("load-kiosk-%d").build());
+        for (int i = 0; i < options.kiosks(); i++) {
+            final String kiosk = MensaMaxSimulator.KIOSKS.get(i % MensaMaxSimulator.KIOSKS.size());
+            kioskExecutor.execute(new KioskLoad(kiosk, client, options, seedRandom.nextLong(), chips, barcodes,
+                    chipDistribution, barcodeDistribution, startNanos, results));
+        }
+        kioskExecutor.shutdown();
+        kioskExecutor.awaitTermination(options.durationSeconds() + options.drainTimeoutSeconds(), TimeUnit.SECONDS);
+        final long sendNanos = System.nanoTime() - startNanos;
+        log.info("Sent {} scans, waiting for the backlog to drain", results.sentCount.get());
+
+        final long drainDeadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(options.drainTimeoutSeconds());
+        while (System.nanoTime() < drainDeadline) {
+            final LoadSample sample = sampler.sample();
+            if (sample.backlog() == 0 && sample.inFlight() == 0) {
+                break;
+            }
+            Thread.sleep(options.sampleIntervalMillis());
+        }
+        samplerExecutor.shutdownNow();
+
+        final Map<String, Long> statusCounts = new TreeMap<>();
+        final Map<String, Long> transactionErrors = new TreeMap<>();
+        final List<Long> performedLatencies = new ArrayList<>();
+        long unfinishedCount = 0;
+        long lastPerformedAt = startDate.getTime();
+        for (final MensaMaxTransaction transaction : client.iterateTransactions(TransactionFilter.builder().recordedFrom(startDate).build())) {
+            statusCounts.merge(transaction.getStatus().name(), 1L, Long::sum);
+            if (transaction.getError() != null) {
+                transactionErrors.merge(transaction.getError(), 1L, Long::sum);
+            }
+            if (transaction.getStatus() == TransactionStatus.PENDING || transaction.getStatus() == TransactionStatus.PROCESSING) {
+                unfinishedCount++;
+            } else if (transaction.getPerformedAt() != null) {
+                performedLatencies.add(transaction.getPerformedAt().getTime() - transaction.getRecordedAt().getTime());
+                lastPerformedAt = Math.max(lastPerformedAt, transaction.getPerformedAt().getTime());
+            }
+        }
+
+        final Map<String, Long> intakeErrors = new TreeMap<>();
+        for (final Map.Entry<String, LongAdder> entry : results.intakeErrors.entrySet()) {
+            intakeErrors.put(entry.getKey(), entry.getValue().sum());
+        }
+
+        final double sendMinutes = sendNanos / (double) TimeUnit.MINUTES.toNanos(1);
+        final double performMinutes = Math.max(1, lastPerformedAt - startDate.getTime()) / (double) TimeUnit.MINUTES.toMillis(1);
+        final long[] intakeLatencies;
+        synchronized (results.intakeLatencies) {
+            intakeLatencies = results.intakeLatencies.stream().mapToLong(Long::longValue).toArray();
+        }
+        return new LoadTestReport(options, results.sentCount.get(), results.sentCount.get() / sendMinutes, performedLatencies.size() / performMinutes,
+                intakeErrors, Percentiles.of(intakeLatencies), Percentiles.of(performedLatencies.stream().mapToLong(Long::longValue).toArray()),
+                statusCounts, transactionErrors, unfinishedCount, sampler.getSamples());
+    }
+}
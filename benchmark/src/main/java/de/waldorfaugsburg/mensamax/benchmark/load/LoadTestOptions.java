@@ -0,0 +1,52 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Shape of the simulated traffic. Runs with the same options and seed send the same sequence of sales.
+ *
+ * @param scansPerMinute average scans per kiosk outside of bursts
+ * @param burstFactor    how many times more scans there are during a burst, e.g. when the bell rings
+ * @param zipfExponent   skew of chips and barcodes, higher values make a few students and products dominate
+ */
+public record LoadTestOptions(long seed, long durationSeconds, int kiosks, double scansPerMinute,
+                              long burstIntervalSeconds, long burstDurationSeconds, double burstFactor,
+                              int persons, int products, double zipfExponent, double multipleQuantityShare,
+                              long latencyMillis, int clientCount, int maxClientCount, boolean asyncIntake,
+                              long drainTimeoutSeconds, long sampleIntervalMillis, String reportPath) {
+
+    /**
+     * Parses {@code --name=value} arguments, everything not given keeps its default.
+     */
+    public static LoadTestOptions parse(final String[] args) {
+        final Map<String, String> values = new HashMap<>();
+        for (final String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got " + arg);
+            }
+            final String[] parts = arg.substring(2).split("=", 2);
+            values.put(parts[0], parts[1]);
+        }
+
+        final long seed = Long.parseLong(values.getOrDefault("seed", "42"));
+        return new LoadTestOptions(seed,
+                Long.parseLong(values.getOrDefault("duration", "300")),
+                Integer.parseInt(values.getOrDefault("kiosks", "8")),
+                Double.parseDouble(values.getOrDefault("scans-per-minute", "6")),
+                Long.parseLong(values.getOrDefault("burst-interval", "60")),
+                Long.parseLong(values.getOrDefault("burst-duration", "15")),
+                Double.parseDouble(values.getOrDefault("burst-factor", "4")),
+                Integer.parseInt(values.getOrDefault("persons", "1000")),
+                Integer.parseInt(values.getOrDefault("products", "50")),
+                Double.parseDouble(values.getOrDefault("zipf-exponent", "1.1")),
+                Double.parseDouble(values.getOrDefault("multiple-quantity-share", "0.1")),
+                Long.parseLong(values.getOrDefault("latency", "50")),
+                Integer.parseInt(values.getOrDefault("client-count", "2")),
+                Integer.parseInt(values.getOrDefault("max-client-count", "4")),
+                Boolean.parseBoolean(values.getOrDefault("async-intake", "true")),
+                Long.parseLong(values.getOrDefault("drain-timeout", "120")),
+                Long.parseLong(values.getOrDefault("sample-interval", "1000")),
+                values.getOrDefault("report", "loadtest-report-" + seed + ".json"));
+    }
+}
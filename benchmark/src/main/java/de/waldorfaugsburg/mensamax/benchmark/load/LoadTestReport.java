@@ -0,0 +1,16 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @param intakeLatency      time from when a scan was due until the server answered, so queueing of an overloaded
+ *                           kiosk counts as well
+ * @param performedLatency   time from recording until MensaMax charged the account, as stored by the server
+ * @param unfinishedCount    transactions still not performed when the drain timeout was reached
+ */
+public record LoadTestReport(LoadTestOptions options, long sentCount, double sentPerMinute, double performedPerMinute,
+                             Map<String, Long> intakeErrors, Percentiles intakeLatency, Percentiles performedLatency,
+                             Map<String, Long> statusCounts, Map<String, Long> transactionErrors, long unfinishedCount,
+                             List<LoadSample> samples) {
+}
@@ -0,0 +1,78 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Reads backlog and client pool gauges from the Prometheus endpoint of the server.
+ */
+@Slf4j
+final class MetricsSampler {
+
+    private final OkHttpClient httpClient = new OkHttpClient();
+    private final Request request;
+    private final LongSupplier sentCount;
+    private final long startNanos;
+    private final List<LoadSample> samples = new ArrayList<>();
+
+    MetricsSampler(final String serverUrl, final String apiKey, final LongSupplier sentCount, final long startNanos) {
+        this.request = new Request.Builder().url(serverUrl + "actuator/prometheus").header("X-API-KEY", apiKey).build();
+        this.sentCount = sentCount;
+        this.startNanos = startNanos;
+    }
+
+    synchronized LoadSample sample() {
+        final List<String> lines = scrape();
+        final LoadSample sample = new LoadSample((System.nanoTime() - startNanos) / 1_000_000, sentCount.getAsLong(),
+                find(lines, "mensamax_transactions_backlog", null),
+                find(lines, "mensamax_transactions_in_flight", null),
+                find(lines, "selenium_clients", "state=\"busy\""),
+                find(lines, "selenium_clients", "state=\"idle\""),
+                find(lines, "selenium_clients_waiting", null),
+                find(lines, "selenium_clients_obtain_seconds_count", "result=\"timeout\""));
+        samples.add(sample);
+        return sample;
+    }
+
+    synchronized List<LoadSample> getSamples() {
+        return List.copyOf(samples);
+    }
+
+    private List<String> scrape() {
+        try (final Response response = httpClient.newCall(request).execute()) {
+            final ResponseBody body = response.body();
+            if (!response.isSuccessful() || body == null) {
+                log.warn("Scraping metrics failed with status {}", response.code());
+                return List.of();
+            }
+            return body.string().lines().filter(line -> !line.startsWith("#")).toList();
+        } catch (final IOException e) {
+            log.warn("Scraping metrics failed", e);
+            return List.of();
+        }
+    }
+
+    private long find(final List<String> lines, final String name, final String label) {
+        // Sums all series of the metric, e.g. the gauges of several client stacks
+        double sum = 0;
+        for (final String line : lines) {
+            final int nameEnd = line.indexOf(line.contains("{") ? '{' : ' ');
+            if (nameEnd < 0 || !line.substring(0, nameEnd).equals(name)) {
+                continue;
+            }
+            if (label != null && !line.contains(label)) {
+                continue;
+            }
+            sum += Double.parseDouble(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        return Math.round(sum);
+    }
+}
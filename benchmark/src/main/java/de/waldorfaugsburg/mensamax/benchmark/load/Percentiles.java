@@ -0,0 +1,21 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import com.google.common.math.Quantiles;
+
+import java.util.Map;
+
+/**
+ * Percentiles of a set of durations in milliseconds.
+ */
+public record Percentiles(int count, long p50, long p95, long p99, long max) {
+
+    static Percentiles of(final long[] values) {
+        if (values.length == 0) {
+            return new Percentiles(0, 0, 0, 0, 0);
+        }
+
+        final Map<Integer, Double> percentiles = Quantiles.percentiles().indexes(50, 95, 99, 100).compute(values);
+        return new Percentiles(values.length, Math.round(percentiles.get(50)), Math.round(percentiles.get(95)),
+                Math.round(percentiles.get(99)), Math.round(percentiles.get(100)));
+    }
+}
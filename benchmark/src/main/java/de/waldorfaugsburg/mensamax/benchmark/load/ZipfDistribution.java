@@ -0,0 +1,30 @@
+package de.waldorfaugsburg.mensamax.benchmark.load;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Draws ranks from 0 to n - 1, where rank k is drawn with a probability proportional to 1 / (k + 1)^exponent.
+ */
+final class ZipfDistribution {
+
+    private final double[] cumulativeProbabilities;
+
+    ZipfDistribution(final int n, final double exponent) {
+        this.cumulativeProbabilities = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1 / Math.pow(k + 1, exponent);
+            cumulativeProbabilities[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulativeProbabilities[k] /= sum;
+        }
+    }
+
+    int sample(final SplittableRandom random) {
+        final int index = Arrays.binarySearch(cumulativeProbabilities, random.nextDouble());
+        // Not found returns -(insertion point) - 1, the insertion point is the rank
+        return Math.min(index >= 0 ? index : -index - 1, cumulativeProbabilities.length - 1);
+    }
+}
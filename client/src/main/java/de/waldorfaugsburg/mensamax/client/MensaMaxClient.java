@@ -5,6 +5,10 @@ import de.waldorfaugsburg.mensamax.client.api.ApiError;
 import de.waldorfaugsburg.mensamax.client.api.ApiException;
 import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
 import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransactionPage;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionRequest;
+import de.waldorfaugsburg.mensamax.transaction.TransactionResult;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
 import okhttp3.OkHttpClient;
 import okhttp3.ResponseBody;
@@ -13,9 +17,11 @@ import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
 import java.time.Duration;
-import java.util.List;
+import java.util.*;
+import java.util.function.Consumer;
 
 public class MensaMaxClient {
 
@@ -26,6 +32,9 @@ public class MensaMaxClient {
     private static final ApiError EMPTY_BODY = new ApiError("EMPTY_BODY", null);
     private static final int SERVICE_UNAVAILABLE_CODE = 503;
     private static final Duration TIMEOUT_DURATION = Duration.ofMinutes(1);
+    private static final int PAGE_SIZE = 500;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
 
     private final UserService userService;
     private final TransactionService transactionService;
@@ -53,27 +62,88 @@ public class MensaMaxClient {
         return response.body();
     }
 
-    public void transaction(final String chipId, final String kiosk, final long productBarcode) throws ApiException {
-        transaction(chipId, kiosk, productBarcode, 1);
+    public MensaMaxTransaction transaction(final String chipId, final String kiosk, final long productBarcode) throws ApiException {
+        return transaction(chipId, kiosk, productBarcode, 1);
     }
 
-    public void transaction(final String chipId, final String kiosk, final long productBarcode, final int quantity) throws ApiException {
-        final Call<Void> call = transactionService.transaction(chipId, kiosk, productBarcode, quantity);
-        handleCall(call);
+    public MensaMaxTransaction transaction(final String chipId, final String kiosk, final long productBarcode, final int quantity) throws ApiException {
+        return transaction(chipId, kiosk, productBarcode, quantity, UUID.randomUUID().toString());
     }
 
-    public List<MensaMaxTransaction> getAllTransactions() throws ApiException {
-        final Call<List<MensaMaxTransaction>> call = transactionService.getAllTransactions();
-        final Response<List<MensaMaxTransaction>> response = handleCall(call);
+    /**
+     * Records the transaction, retrying timeouts and unavailable servers. The server records a transaction only once
+     * per idempotency key, so the same key may be passed again after this method failed.
+     */
+    public MensaMaxTransaction transaction(final String chipId, final String kiosk, final long productBarcode, final int quantity,
+                                           final String idempotencyKey) throws ApiException {
+        final Call<MensaMaxTransaction> call = transactionService.transaction(chipId, kiosk, productBarcode, quantity, idempotencyKey);
+        final Response<MensaMaxTransaction> response = handleRetryingCall(call);
+        return response.body();
+    }
+
+    /**
+     * Records all requests with a single call. The results are in the order of the requests.
+     */
+    public List<TransactionResult> transactions(final List<TransactionRequest> requests) throws ApiException {
+        // Requests without a key would be recorded again by a retry
+        for (final TransactionRequest request : requests) {
+            if (request.getIdempotencyKey() == null) {
+                request.setIdempotencyKey(UUID.randomUUID().toString());
+            }
+        }
+
+        final Call<List<TransactionResult>> call = transactionService.transactions(requests);
+        final Response<List<TransactionResult>> response = handleRetryingCall(call);
         return response.body();
     }
 
+    public List<MensaMaxTransaction> getAllTransactions() throws ApiException {
+        return getAllTransactions(new TransactionFilter());
+    }
+
     public List<MensaMaxTransaction> getAllTransactionsByStatus(final TransactionStatus status) throws ApiException {
-        final Call<List<MensaMaxTransaction>> call = transactionService.getAllTransactionsByStatus(status);
-        final Response<List<MensaMaxTransaction>> response = handleCall(call);
+        return getAllTransactions(TransactionFilter.builder().status(status).build());
+    }
+
+    public List<MensaMaxTransaction> getAllTransactions(final TransactionFilter filter) throws ApiException {
+        final List<MensaMaxTransaction> transactions = new ArrayList<>();
+        iterateTransactions(filter).forEach(transactions::add);
+        return transactions;
+    }
+
+    /**
+     * Iterates over all transactions matching the filter, fetching one page at a time as the iteration goes on.
+     */
+    public Iterable<MensaMaxTransaction> iterateTransactions(final TransactionFilter filter) {
+        return () -> new TransactionPageIterator(filter);
+    }
+
+    public MensaMaxTransactionPage getTransactions(final TransactionFilter filter, final Long afterId, final int limit) throws ApiException {
+        final Call<MensaMaxTransactionPage> call = transactionService.getTransactions(filter.getStatus(), formatDate(filter.getRecordedFrom()),
+                formatDate(filter.getRecordedTo()), filter.getKiosk(), filter.getUsername(), filter.getBarcode(), afterId, limit);
+        final Response<MensaMaxTransactionPage> response = handleCall(call);
         return response.body();
     }
 
+    /**
+     * Streams all transactions matching the status and date range of the filter to the consumer while they are being
+     * downloaded, without holding them in memory.
+     */
+    public void exportTransactions(final TransactionFilter filter, final Consumer<MensaMaxTransaction> consumer) throws ApiException {
+        final Call<ResponseBody> call = transactionService.exportTransactions("NDJSON", filter.getStatus(), formatDate(filter.getRecordedFrom()), formatDate(filter.getRecordedTo()));
+        final Response<ResponseBody> response = handleCall(call);
+        try (final ResponseBody body = response.body(); final BufferedReader reader = new BufferedReader(body.charStream())) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    consumer.accept(GSON.fromJson(line, MensaMaxTransaction.class));
+                }
+            }
+        } catch (final IOException e) {
+            throw new ApiException(e);
+        }
+    }
+
     public MensaMaxTransaction getTransactionById(final int transactionId) throws ApiException {
         final Call<MensaMaxTransaction> call = transactionService.getTransactionById(transactionId);
         final Response<MensaMaxTransaction> response = handleCall(call);
@@ -85,6 +155,36 @@ public class MensaMaxClient {
         handleCall(call);
     }
 
+    private String formatDate(final Date date) {
+        return date != null ? date.toInstant().toString() : null;
+    }
+
+    private <T> Response<T> handleRetryingCall(final Call<T> call) throws ApiException {
+        Call<T> currentCall = call;
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return handleCall(currentCall);
+            } catch (final ApiException e) {
+                final boolean retryable = e.getCause() instanceof IOException || e.getResponseCode() == SERVICE_UNAVAILABLE_CODE;
+                if (!retryable || attempt >= MAX_ATTEMPTS) {
+                    throw e;
+                }
+
+                sleepBeforeRetry(attempt);
+                currentCall = currentCall.clone();
+            }
+        }
+    }
+
+    private void sleepBeforeRetry(final int attempt) throws ApiException {
+        try {
+            Thread.sleep(RETRY_DELAY.multipliedBy(attempt));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ApiException(e);
+        }
+    }
+
     private <T> Response<T> handleCall(final Call<T> call) throws ApiException {
         try {
             final Response<T> response = call.execute();
@@ -117,4 +217,35 @@ public class MensaMaxClient {
         errorBody.close();
         return GSON.fromJson(rawBody, ApiError.class);
     }
+
+    private final class TransactionPageIterator implements Iterator<MensaMaxTransaction> {
+
+        private final TransactionFilter filter;
+        private Iterator<MensaMaxTransaction> pageIterator = Collections.emptyIterator();
+        private Long nextCursor;
+        private boolean lastPage;
+
+        private TransactionPageIterator(final TransactionFilter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!pageIterator.hasNext() && !lastPage) {
+                final MensaMaxTransactionPage page = getTransactions(filter, nextCursor, PAGE_SIZE);
+                pageIterator = page.getTransactions().iterator();
+                nextCursor = page.getNextCursor();
+                lastPage = nextCursor == null;
+            }
+            return pageIterator.hasNext();
+        }
+
+        @Override
+        public MensaMaxTransaction next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return pageIterator.next();
+        }
+    }
 }
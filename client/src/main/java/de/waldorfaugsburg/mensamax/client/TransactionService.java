@@ -1,7 +1,11 @@
 package de.waldorfaugsburg.mensamax.client;
 
 import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransactionPage;
+import de.waldorfaugsburg.mensamax.transaction.TransactionRequest;
+import de.waldorfaugsburg.mensamax.transaction.TransactionResult;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.*;
 
@@ -10,10 +14,13 @@ import java.util.List;
 public interface TransactionService {
 
     @GET("transactions")
-    Call<List<MensaMaxTransaction>> getAllTransactions();
+    Call<MensaMaxTransactionPage> getTransactions(@Query("status") TransactionStatus status, @Query("from") String from, @Query("to") String to,
+                                                  @Query("kiosk") String kiosk, @Query("username") String username, @Query("barcode") Long barcode,
+                                                  @Query("after") Long after, @Query("limit") int limit);
 
-    @GET("transactions/{status}")
-    Call<List<MensaMaxTransaction>> getAllTransactionsByStatus(@Path("status") TransactionStatus status);
+    @Streaming
+    @GET("transactions/export")
+    Call<ResponseBody> exportTransactions(@Query("format") String format, @Query("status") TransactionStatus status, @Query("from") String from, @Query("to") String to);
 
     @GET("transaction/{id}")
     Call<MensaMaxTransaction> getTransactionById(@Path("id") int id);
@@ -22,5 +29,9 @@ public interface TransactionService {
     Call<Void> deleteTransactionById(@Path("id") int id);
 
     @POST("transaction")
-    Call<Void> transaction(@Query("chip") String chip, @Query("kiosk") String kiosk, @Query("barcode") long barcode, @Query("quantity") int quantity);
+    Call<MensaMaxTransaction> transaction(@Query("chip") String chip, @Query("kiosk") String kiosk, @Query("barcode") long barcode, @Query("quantity") int quantity,
+                                          @Header("Idempotency-Key") String idempotencyKey);
+
+    @POST("transactions")
+    Call<List<TransactionResult>> transactions(@Body List<TransactionRequest> requests);
 }
@@ -14,9 +14,11 @@ public final class MensaMaxTransaction {
     private long id;
     private String username;
     private String chip;
+    private String kiosk;
     private long barcode;
     private int quantity;
     private TransactionStatus status;
     private Date recordedAt;
     private Date performedAt;
+    private String error;
 }
\ No newline at end of file
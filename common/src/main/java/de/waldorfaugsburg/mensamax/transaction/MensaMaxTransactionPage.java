@@ -0,0 +1,22 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.List;
+
+/**
+ * A page of transactions ordered by id. The next page is requested with {@link #getNextCursor()}, which is null on
+ * the last page.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@ToString
+public final class MensaMaxTransactionPage {
+
+    private List<MensaMaxTransaction> transactions;
+    private Long nextCursor;
+}
@@ -0,0 +1,23 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.*;
+
+import java.util.Date;
+
+/**
+ * Criteria for listing transactions. Criteria left null are ignored.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+@ToString
+public final class TransactionFilter {
+
+    private TransactionStatus status;
+    private Date recordedFrom;
+    private Date recordedTo;
+    private String kiosk;
+    private String username;
+    private Long barcode;
+}
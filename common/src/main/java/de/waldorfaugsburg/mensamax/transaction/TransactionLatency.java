@@ -0,0 +1,23 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Latency percentiles of a single step at a single kiosk, in milliseconds.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@ToString
+public final class TransactionLatency {
+
+    private String kiosk;
+    private String step;
+    private int count;
+    private long p50;
+    private long p95;
+    private long p99;
+}
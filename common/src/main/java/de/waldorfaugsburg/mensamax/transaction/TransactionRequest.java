@@ -0,0 +1,20 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.*;
+
+/**
+ * A sale to be recorded. Requests carrying an idempotency key that has already been recorded are not recorded again.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+@Data
+@ToString
+public final class TransactionRequest {
+
+    private String chip;
+    private String kiosk;
+    private long barcode;
+    private int quantity;
+    private String idempotencyKey;
+}
@@ -0,0 +1,19 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+/**
+ * Result of a single request of a batch: either the recorded transaction or the error code why it wasn't recorded.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@ToString
+public final class TransactionResult {
+
+    private MensaMaxTransaction transaction;
+    private String error;
+}
@@ -1,8 +1,13 @@
 package de.waldorfaugsburg.mensamax.transaction;
 
+/**
+ * Stored by ordinal, so new statuses have to be appended and existing ones must never be reordered or removed.
+ */
 public enum TransactionStatus {
 
     PENDING,
     SUCCESS,
     FAILED,
+    UNRESOLVED,
+    PROCESSING,
 }
\ No newline at end of file
@@ -0,0 +1,30 @@
+package de.waldorfaugsburg.mensamax.transaction;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.ToString;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Where the time of a transaction went: how long it waited to be picked up, which client performed it and how long
+ * each checkout step took. Steps of retried checkouts add up.
+ */
+@NoArgsConstructor
+@AllArgsConstructor
+@Data
+@ToString
+public final class TransactionTrace {
+
+    private long queueWaitMillis;
+    private Integer clientId;
+    private int attempts;
+    private Map<String, Long> stepMillis = new LinkedHashMap<>();
+    private String errorClass;
+
+    public void addStep(final String step, final long millis) {
+        stepMillis.merge(step, millis, Long::sum);
+    }
+}
@@ -1,7 +1,10 @@
 package de.waldorfaugsburg.mensamax.server;
 
+import de.waldorfaugsburg.mensamax.server.configuration.CacheConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.DirectoryConfigurationProperties;
 import de.waldorfaugsburg.mensamax.server.configuration.MensaMaxConfigurationProperties;
 import de.waldorfaugsburg.mensamax.server.configuration.SeleniumConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.TransactionConfigurationProperties;
 import io.swagger.v3.oas.models.OpenAPI;
 import io.swagger.v3.oas.models.info.Contact;
 import io.swagger.v3.oas.models.info.Info;
@@ -18,7 +21,7 @@ import org.springframework.scheduling.annotation.EnableScheduling;
 import java.util.Collections;
 
 @SpringBootApplication(exclude = {UserDetailsServiceAutoConfiguration.class, JacksonAutoConfiguration.class})
-@EnableConfigurationProperties({SeleniumConfigurationProperties.class, MensaMaxConfigurationProperties.class})
+@EnableConfigurationProperties({SeleniumConfigurationProperties.class, MensaMaxConfigurationProperties.class, CacheConfigurationProperties.class, TransactionConfigurationProperties.class, DirectoryConfigurationProperties.class})
 @EnableScheduling
 public class MensaMaxServerApplication {
 
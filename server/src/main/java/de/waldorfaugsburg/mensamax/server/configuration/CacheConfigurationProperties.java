@@ -0,0 +1,18 @@
+package de.waldorfaugsburg.mensamax.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("cache")
+public record CacheConfigurationProperties(@DefaultValue("10000") int chipCacheSize,
+                                           @DefaultValue("7d") Duration chipRevalidationAge,
+                                           @DefaultValue("10000") int userCacheSize,
+                                           @DefaultValue("1h") Duration userRefreshAge,
+                                           @DefaultValue("8h") Duration userExpireAge,
+                                           @DefaultValue("1000") int negativeCacheSize,
+                                           @DefaultValue("5m") Duration negativeCacheAge,
+                                           @DefaultValue("10000") int idempotencyKeyCacheSize,
+                                           @DefaultValue("24h") Duration idempotencyKeyCacheAge) {
+}
@@ -0,0 +1,8 @@
+package de.waldorfaugsburg.mensamax.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+@ConfigurationProperties("directory")
+public record DirectoryConfigurationProperties(@DefaultValue("false") boolean syncEnabled) {
+}
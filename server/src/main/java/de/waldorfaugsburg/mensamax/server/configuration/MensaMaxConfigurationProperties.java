@@ -1,12 +1,19 @@
 package de.waldorfaugsburg.mensamax.server.configuration;
 
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngineType;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
 
 import java.util.Map;
 import java.util.Set;
 
 @ConfigurationProperties("mensamax")
-public record MensaMaxConfigurationProperties(String projectId, String facilityId,
+public record MensaMaxConfigurationProperties(@DefaultValue("https://mensastadt.de") String url, String projectId, String facilityId,
                                               String username, String password,
-                                              int clientCount) {
+                                              int clientCount, @DefaultValue("0") int maxClientCount,
+                                              @DefaultValue("SELENIUM") UserLookupEngineType lookupEngine) {
+
+    public int effectiveMaxClientCount() {
+        return Math.max(clientCount, maxClientCount);
+    }
 }
@@ -1,7 +1,17 @@
 package de.waldorfaugsburg.mensamax.server.configuration;
 
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
 import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+import java.util.Map;
 
 @ConfigurationProperties("selenium")
-public record SeleniumConfigurationProperties(String driverPath, String profilePath) {
+public record SeleniumConfigurationProperties(String driverPath, String profilePath,
+                                              @DefaultValue("10m") Duration idleTimeout,
+                                              @DefaultValue("3s") Duration waitTimeout,
+                                              Map<String, Duration> waitTimeouts,
+                                              @DefaultValue("25ms") Duration waitPollInterval,
+                                              Map<ClientPriority, Duration> obtainTimeouts) {
 }
@@ -0,0 +1,12 @@
+package de.waldorfaugsburg.mensamax.server.configuration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.boot.context.properties.bind.DefaultValue;
+
+import java.time.Duration;
+
+@ConfigurationProperties("transaction")
+public record TransactionConfigurationProperties(@DefaultValue("false") boolean asyncIntake,
+                                                 @DefaultValue("2s") Duration batchWindow,
+                                                 String quantityInputId) {
+}
@@ -0,0 +1,31 @@
+package de.waldorfaugsburg.mensamax.server.controller;
+
+import de.waldorfaugsburg.mensamax.server.service.CacheStatistics;
+import de.waldorfaugsburg.mensamax.server.service.ChipIndexService;
+import de.waldorfaugsburg.mensamax.server.service.MensaMaxService;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RestController
+public class CacheController {
+
+    private final MensaMaxService mensaMaxService;
+    private final ChipIndexService chipIndexService;
+
+    public CacheController(final MensaMaxService mensaMaxService, final ChipIndexService chipIndexService) {
+        this.mensaMaxService = mensaMaxService;
+        this.chipIndexService = chipIndexService;
+    }
+
+    @GetMapping("/cache")
+    public ResponseEntity<List<CacheStatistics>> getCacheStatistics() {
+        final List<CacheStatistics> statistics = new ArrayList<>(mensaMaxService.getCacheStatistics());
+        statistics.add(chipIndexService.getCacheStatistics());
+        return new ResponseEntity<>(statistics, HttpStatus.OK);
+    }
+}
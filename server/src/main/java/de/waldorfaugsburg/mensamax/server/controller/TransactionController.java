@@ -1,30 +1,56 @@
 package de.waldorfaugsburg.mensamax.server.controller;
 
-import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.server.service.TransactionExportFormat;
+import de.waldorfaugsburg.mensamax.server.service.TransactionExportService;
+import de.waldorfaugsburg.mensamax.server.service.TransactionLatencyService;
 import de.waldorfaugsburg.mensamax.server.service.TransactionService;
 import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransactionPage;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionLatency;
+import de.waldorfaugsburg.mensamax.transaction.TransactionRequest;
+import de.waldorfaugsburg.mensamax.transaction.TransactionResult;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.transaction.annotation.Transactional;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.util.Date;
 import java.util.List;
-import java.util.Optional;
 
 @RestController
 public class TransactionController {
 
+    private static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
     private final TransactionService transactionService;
+    private final TransactionExportService transactionExportService;
+    private final TransactionLatencyService transactionLatencyService;
 
-    public TransactionController(final TransactionService transactionService) {
+    public TransactionController(final TransactionService transactionService, final TransactionExportService transactionExportService,
+                                 final TransactionLatencyService transactionLatencyService) {
         this.transactionService = transactionService;
+        this.transactionExportService = transactionExportService;
+        this.transactionLatencyService = transactionLatencyService;
     }
 
     @GetMapping("/transactions")
     @Transactional(readOnly = true)
-    public ResponseEntity<List<MensaMaxTransaction>> fetchAllTransactions() {
-        return new ResponseEntity<>(transactionService.fetchAllTransactions(), HttpStatus.OK);
+    public ResponseEntity<MensaMaxTransactionPage> fetchTransactions(final @RequestParam(name = "status", required = false) TransactionStatus status,
+                                                                     final @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+                                                                     final @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+                                                                     final @RequestParam(name = "kiosk", required = false) String kiosk,
+                                                                     final @RequestParam(name = "username", required = false) String username,
+                                                                     final @RequestParam(name = "barcode", required = false) Long barcode,
+                                                                     final @RequestParam(name = "after", required = false) Long after,
+                                                                     final @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        final TransactionFilter filter = new TransactionFilter(status, from, to, kiosk, username, barcode);
+        return new ResponseEntity<>(transactionService.fetchTransactions(filter, after, limit), HttpStatus.OK);
     }
 
     @GetMapping("/transaction/{id}")
@@ -33,10 +59,39 @@ public class TransactionController {
         return new ResponseEntity<>(transactionService.fetchTransactionById(id), HttpStatus.OK);
     }
 
+    @GetMapping("/transaction/{id}/trace")
+    @Transactional(readOnly = true)
+    public ResponseEntity<TransactionTrace> fetchTransactionTrace(final @PathVariable(name = "id") int id) {
+        final TransactionTrace trace = transactionService.fetchTransactionTrace(id);
+        // Transactions that haven't been picked up by a worker yet have no trace
+        return trace != null ? new ResponseEntity<>(trace, HttpStatus.OK) : new ResponseEntity<>(HttpStatus.NO_CONTENT);
+    }
+
+    @GetMapping("/transactions/latency")
+    public ResponseEntity<List<TransactionLatency>> fetchTransactionLatencies(final @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+                                                                              final @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to,
+                                                                              final @RequestParam(name = "kiosk", required = false) String kiosk) {
+        final TransactionFilter filter = TransactionFilter.builder().recordedFrom(from).recordedTo(to).kiosk(kiosk).build();
+        return new ResponseEntity<>(transactionLatencyService.computeLatencies(filter), HttpStatus.OK);
+    }
+
+    @GetMapping("/transactions/export")
+    public ResponseEntity<StreamingResponseBody> exportTransactions(final @RequestParam(name = "format", defaultValue = "NDJSON") TransactionExportFormat format,
+                                                                    final @RequestParam(name = "status", required = false) TransactionStatus status,
+                                                                    final @RequestParam(name = "from", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date from,
+                                                                    final @RequestParam(name = "to", required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) Date to) {
+        final TransactionFilter filter = TransactionFilter.builder().status(status).recordedFrom(from).recordedTo(to).build();
+        final StreamingResponseBody body = outputStream -> transactionExportService.exportTransactions(filter, format, outputStream);
+        return ResponseEntity.status(HttpStatus.OK).header(HttpHeaders.CONTENT_TYPE, format.getContentType()).body(body);
+    }
+
     @GetMapping("/transactions/{status}")
     @Transactional(readOnly = true)
-    public ResponseEntity<List<MensaMaxTransaction>> fetchAllTransactionsByStatus(final @PathVariable(name = "status") TransactionStatus status) {
-        return new ResponseEntity<>(transactionService.fetchAllTransactionsByStatus(status), HttpStatus.OK);
+    public ResponseEntity<MensaMaxTransactionPage> fetchTransactionsByStatus(final @PathVariable(name = "status") TransactionStatus status,
+                                                                             final @RequestParam(name = "after", required = false) Long after,
+                                                                             final @RequestParam(name = "limit", defaultValue = "100") int limit) {
+        final TransactionFilter filter = TransactionFilter.builder().status(status).build();
+        return new ResponseEntity<>(transactionService.fetchTransactions(filter, after, limit), HttpStatus.OK);
     }
 
     @DeleteMapping("/transaction/{id}")
@@ -46,9 +101,16 @@ public class TransactionController {
     }
 
     @PostMapping("/transaction")
-    public ResponseEntity<Void> recordTransaction(@RequestParam("chip") final String chip, @RequestParam("kiosk") final String kiosk, @RequestParam("barcode") final long barcode, @RequestParam("quantity") final int quantity) {
-        transactionService.recordTransaction(chip, kiosk, barcode, quantity);
-        return new ResponseEntity<>(HttpStatus.OK);
+    public ResponseEntity<MensaMaxTransaction> recordTransaction(@RequestParam("chip") final String chip, @RequestParam("kiosk") final String kiosk, @RequestParam("barcode") final long barcode, @RequestParam("quantity") final int quantity,
+                                                                 @RequestHeader(name = IDEMPOTENCY_KEY_HEADER, required = false) final String idempotencyKey) {
+        final MensaMaxTransaction transaction = transactionService.recordTransaction(chip, kiosk, barcode, quantity, idempotencyKey);
+        return new ResponseEntity<>(transaction, transactionService.isAsyncIntake() ? HttpStatus.ACCEPTED : HttpStatus.OK);
+    }
+
+    @PostMapping("/transactions")
+    public ResponseEntity<List<TransactionResult>> recordTransactions(@RequestBody final List<TransactionRequest> requests) {
+        final List<TransactionResult> results = transactionService.recordTransactions(requests);
+        return new ResponseEntity<>(results, transactionService.isAsyncIntake() ? HttpStatus.ACCEPTED : HttpStatus.OK);
     }
 
 }
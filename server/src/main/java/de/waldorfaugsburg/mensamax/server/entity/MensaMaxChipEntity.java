@@ -0,0 +1,22 @@
+package de.waldorfaugsburg.mensamax.server.entity;
+
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import lombok.*;
+
+import java.time.Instant;
+
+@Entity
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode(of = {"chip"})
+public class MensaMaxChipEntity {
+
+    @Id
+    private String chip;
+
+    private String username;
+    private Instant resolvedAt;
+}
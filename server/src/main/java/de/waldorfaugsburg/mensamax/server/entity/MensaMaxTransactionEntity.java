@@ -2,17 +2,23 @@ package de.waldorfaugsburg.mensamax.server.entity;
 
 import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
 import jakarta.annotation.Nullable;
+import jakarta.persistence.Column;
+import jakarta.persistence.Convert;
 import jakarta.persistence.Entity;
 import jakarta.persistence.GeneratedValue;
 import jakarta.persistence.GenerationType;
 import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
 import lombok.*;
 
 import java.time.Instant;
 import java.util.Date;
 
 @Entity
+@Table(indexes = {@Index(columnList = "status"), @Index(columnList = "recordedAt"), @Index(columnList = "kiosk"), @Index(columnList = "username")})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -34,8 +40,17 @@ public class MensaMaxTransactionEntity {
     private Instant recordedAt;
     @Nullable
     private Instant performedAt;
+    @Nullable
+    private String error;
+    @Nullable
+    @Column(unique = true)
+    private String idempotencyKey;
+    @Nullable
+    @Convert(converter = TransactionTraceConverter.class)
+    @Column(length = TransactionTraceConverter.MAX_LENGTH)
+    private TransactionTrace trace;
 
     public MensaMaxTransaction asModel() {
-        return new MensaMaxTransaction(id, username, chip, barcode, quantity, status, Date.from(recordedAt), performedAt != null ? Date.from(performedAt) : null);
+        return new MensaMaxTransaction(id, username, chip, kiosk, barcode, quantity, status, Date.from(recordedAt), performedAt != null ? Date.from(performedAt) : null, error);
     }
 }
@@ -0,0 +1,54 @@
+package de.waldorfaugsburg.mensamax.server.entity;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import jakarta.annotation.Nullable;
+import jakarta.persistence.Entity;
+import jakarta.persistence.Id;
+import jakarta.persistence.Index;
+import jakarta.persistence.Table;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+@Entity
+@Table(indexes = {@Index(columnList = "employeeId"), @Index(columnList = "personId")})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@ToString
+@EqualsAndHashCode(of = {"username"})
+public class MensaMaxUserEntity {
+
+    @Id
+    private String username;
+
+    private String firstName;
+    private String lastName;
+    private String email;
+    private String contactEmails;
+    private String dateOfBirth;
+    private String userGroup;
+    private int employeeId;
+
+    @Nullable
+    private Integer personId;
+    @Nullable
+    private String fingerprint;
+    private Instant syncedAt;
+
+    public static MensaMaxUserEntity fromModel(final MensaMaxUser user, @Nullable final Integer personId, @Nullable final String fingerprint) {
+        final String contactEmails = user.getContactEmails() != null ? String.join(",", user.getContactEmails()) : "";
+        return new MensaMaxUserEntity(user.getUsername(), user.getFirstName(), user.getLastName(), user.getEmail(), contactEmails,
+                user.getDateOfBirth(), user.getUserGroup(), user.getEmployeeId(), personId, fingerprint, Instant.now());
+    }
+
+    public MensaMaxUser asModel() {
+        final List<String> contactEmailList = new ArrayList<>();
+        if (contactEmails != null && !contactEmails.isEmpty()) {
+            contactEmailList.addAll(List.of(contactEmails.split(",")));
+        }
+        return new MensaMaxUser(username, firstName, lastName, email, contactEmailList, dateOfBirth, userGroup, employeeId);
+    }
+}
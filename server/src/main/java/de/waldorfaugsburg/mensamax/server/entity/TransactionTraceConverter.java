@@ -0,0 +1,140 @@
+package de.waldorfaugsburg.mensamax.server.entity;
+
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
+import jakarta.persistence.AttributeConverter;
+import jakarta.persistence.Converter;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores traces as a few bytes of varints instead of JSON, as there is one trace per sale. Known steps are written as
+ * their index in {@link #KNOWN_STEPS}, others by name. Steps may only ever be appended to that list. Traces never
+ * exceed {@link #MAX_LENGTH} bytes: long names are cut and unknown steps that don't fit anymore are left out.
+ */
+@Converter
+public class TransactionTraceConverter implements AttributeConverter<TransactionTrace, byte[]> {
+
+    public static final int MAX_LENGTH = 1024;
+
+    private static final int VERSION = 1;
+    private static final int MAX_STRING_BYTES = 200;
+    // Leaves room for the error class and the varints around the steps
+    private static final int MAX_STEP_BYTES = MAX_LENGTH - MAX_STRING_BYTES - 32;
+    private static final List<String> KNOWN_STEPS = List.of("obtain-client", "login", "kiosk-switch", "chip-entry", "product-scan", "payment");
+
+    @Override
+    public byte[] convertToDatabaseColumn(final TransactionTrace trace) {
+        if (trace == null) {
+            return null;
+        }
+
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream(32);
+        outputStream.write(VERSION);
+        writeVarLong(outputStream, trace.getQueueWaitMillis());
+        // Zero means no client has been assigned
+        writeVarLong(outputStream, trace.getClientId() != null ? trace.getClientId() + 1 : 0);
+        writeVarLong(outputStream, trace.getAttempts());
+
+        final ByteArrayOutputStream stepStream = new ByteArrayOutputStream(16);
+        int stepCount = 0;
+        for (final Map.Entry<String, Long> entry : trace.getStepMillis().entrySet()) {
+            final ByteArrayOutputStream entryStream = new ByteArrayOutputStream(4);
+            final int stepIndex = KNOWN_STEPS.indexOf(entry.getKey());
+            writeVarLong(entryStream, stepIndex + 1);
+            if (stepIndex < 0) {
+                writeString(entryStream, entry.getKey());
+            }
+            writeVarLong(entryStream, entry.getValue());
+            if (stepStream.size() + entryStream.size() <= MAX_STEP_BYTES) {
+                stepStream.writeBytes(entryStream.toByteArray());
+                stepCount++;
+            }
+        }
+        writeVarLong(outputStream, stepCount);
+        outputStream.writeBytes(stepStream.toByteArray());
+
+        writeString(outputStream, trace.getErrorClass());
+        return outputStream.toByteArray();
+    }
+
+    @Override
+    public TransactionTrace convertToEntityAttribute(final byte[] data) {
+        if (data == null) {
+            return null;
+        }
+
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final int version = buffer.get();
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported trace version " + version);
+        }
+
+        final TransactionTrace trace = new TransactionTrace();
+        trace.setQueueWaitMillis(readVarLong(buffer));
+        final int clientId = (int) readVarLong(buffer);
+        trace.setClientId(clientId > 0 ? clientId - 1 : null);
+        trace.setAttempts((int) readVarLong(buffer));
+        final int stepCount = (int) readVarLong(buffer);
+        for (int i = 0; i < stepCount; i++) {
+            final int stepIndex = (int) readVarLong(buffer) - 1;
+            final String step = stepIndex >= 0 ? KNOWN_STEPS.get(stepIndex) : readString(buffer);
+            trace.addStep(step, readVarLong(buffer));
+        }
+        trace.setErrorClass(readString(buffer));
+        return trace;
+    }
+
+    private static void writeVarLong(final ByteArrayOutputStream outputStream, final long value) {
+        // Seven bits per byte, the high bit tells whether another byte follows
+        long remaining = Math.max(0, value);
+        while ((remaining & ~0x7FL) != 0) {
+            outputStream.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        outputStream.write((int) remaining);
+    }
+
+    private static long readVarLong(final ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte current;
+        do {
+            current = buffer.get();
+            value |= (long) (current & 0x7F) << shift;
+            shift += 7;
+        } while ((current & 0x80) != 0);
+        return value;
+    }
+
+    private static void writeString(final ByteArrayOutputStream outputStream, final String value) {
+        // Zero means null, as empty strings aren't worth keeping
+        if (value == null || value.isEmpty()) {
+            writeVarLong(outputStream, 0);
+            return;
+        }
+
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_STRING_BYTES);
+        // Never cut a character in half
+        while (length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        writeVarLong(outputStream, length);
+        outputStream.write(bytes, 0, length);
+    }
+
+    private static String readString(final ByteBuffer buffer) {
+        final int length = (int) readVarLong(buffer);
+        if (length == 0) {
+            return null;
+        }
+
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,18 @@
+package de.waldorfaugsburg.mensamax.server.exception;
+
+import io.github.wimdeblauwe.errorhandlingspringbootstarter.ResponseErrorCode;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseErrorCode("MENSAMAX_TIMEOUT")
+@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+public final class MensaMaxTimeoutException extends RuntimeException {
+
+    public MensaMaxTimeoutException(final String action) {
+        super(String.format("MensaMax didn't answer in time while %s", action));
+    }
+
+    public MensaMaxTimeoutException(final String action, final Throwable cause) {
+        super(String.format("MensaMax didn't answer in time while %s", action), cause);
+    }
+}
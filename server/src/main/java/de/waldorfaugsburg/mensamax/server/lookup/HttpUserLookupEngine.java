@@ -0,0 +1,301 @@
+package de.waldorfaugsburg.mensamax.server.lookup;
+
+import com.google.common.hash.Hashing;
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.exception.InvalidFieldException;
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
+import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
+import de.waldorfaugsburg.mensamax.server.service.MensaMaxService;
+import lombok.extern.slf4j.Slf4j;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Reads users with plain HTTP requests instead of rendering the pages in the browser. Requests are sent using the
+ * session of a {@link SeleniumClient}, which is borrowed for the whole lookup since MensaMax keeps the currently
+ * selected person per session.
+ */
+@Slf4j
+public final class HttpUserLookupEngine implements UserLookupEngine {
+
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+    private static final Pattern DEFAULT_BUTTON_PATTERN = Pattern.compile("WebForm_FireDefaultButton\\(event,\\s*'([^']+)'\\)");
+    private static final Pattern PAGE_POSTBACK_PATTERN = Pattern.compile("__doPostBack\\('([^']+)','Page\\$(\\d+)'\\)");
+    private static final Pattern PERSON_ID_PATTERN = Pattern.compile("PersonID=(\\d+)");
+    private static final String USERNAME_FIELD_NAME = "tbloginname";
+    private static final int MAX_PERSON_LIST_PAGES = 1000;
+
+    private final MensaMaxService mensaMaxService;
+    private final HttpClient httpClient;
+
+    public HttpUserLookupEngine(final MensaMaxService mensaMaxService) {
+        this.mensaMaxService = mensaMaxService;
+        this.httpClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL).connectTimeout(REQUEST_TIMEOUT).build();
+    }
+
+    @Override
+    public MensaMaxUser findUserByInputField(final ClientPriority priority, final String inputFieldName, final String value) throws InvalidFieldException {
+        return withSession(priority, "requesting user by field " + inputFieldName, (client, cookieHeader) -> {
+            final String searchUrl = mensaMaxService.url(MensaMaxService.PERSON_SEARCH_PATH);
+            final Document searchPage = send(client, cookieHeader, HttpRequest.newBuilder(URI.create(searchUrl)).GET(), MensaMaxService.PERSON_SEARCH_PATH);
+            final Document dataPage = submitSearch(client, cookieHeader, searchPage, inputFieldName, value, MensaMaxService.PERSON_DATA_PATH, MensaMaxService.PERSON_SEARCH_PATH);
+
+            // MensaMax stays on the search page if nobody matches
+            if (dataPage.getElementById("tbxBenutzername") == null) {
+                if (!isNoMatchShown(dataPage)) {
+                    throw new IllegalStateException("Search page shows neither a person nor an empty result");
+                }
+                throw new InvalidFieldException(inputFieldName, value);
+            }
+
+            log.info("Requested user by field '{}' with value '{}' via HTTP", inputFieldName, value);
+            return readUserData(dataPage, readEmailPage(client, cookieHeader));
+        });
+    }
+
+    /**
+     * Lists all persons by submitting an empty search and walking through every page of the result grid.
+     */
+    public List<PersonListEntry> listPersons(final ClientPriority priority) {
+        return withSession(priority, "listing persons", (client, cookieHeader) -> {
+            final String searchUrl = mensaMaxService.url(MensaMaxService.PERSON_SEARCH_PATH);
+            final Document searchPage = send(client, cookieHeader, HttpRequest.newBuilder(URI.create(searchUrl)).GET(), MensaMaxService.PERSON_SEARCH_PATH);
+            Document resultPage = submitSearch(client, cookieHeader, searchPage, USERNAME_FIELD_NAME, "", MensaMaxService.PERSON_SEARCH_PATH);
+
+            final Map<Integer, PersonListEntry> entries = new LinkedHashMap<>();
+            for (int page = 1; page <= MAX_PERSON_LIST_PAGES; page++) {
+                for (final Element link : resultPage.select(MensaMaxService.PERSON_LINK_SELECTOR)) {
+                    final Matcher matcher = PERSON_ID_PATTERN.matcher(link.attr("href"));
+                    if (!matcher.find()) {
+                        continue;
+                    }
+
+                    // Any change of the visible row is taken as a change of the person
+                    final Element row = Optional.ofNullable(link.closest("tr")).orElse(link);
+                    final String fingerprint = Hashing.murmur3_128().hashString(row.text(), StandardCharsets.UTF_8).toString();
+                    final int personId = Integer.parseInt(matcher.group(1));
+                    entries.putIfAbsent(personId, new PersonListEntry(personId, fingerprint));
+                }
+
+                final Element nextPageLink = findPageLink(resultPage, page + 1);
+                if (nextPageLink == null) {
+                    break;
+                }
+
+                final Matcher matcher = PAGE_POSTBACK_PATTERN.matcher(nextPageLink.attr("href"));
+                final Element form = nextPageLink.closest("form");
+                if (!matcher.find() || form == null) {
+                    break;
+                }
+
+                final Map<String, String> formData = collectFormData(form);
+                formData.put("__EVENTTARGET", matcher.group(1));
+                formData.put("__EVENTARGUMENT", "Page$" + (page + 1));
+                resultPage = post(client, cookieHeader, form, searchUrl, formData, MensaMaxService.PERSON_SEARCH_PATH);
+            }
+
+            log.info("Listed {} persons via HTTP", entries.size());
+            return new ArrayList<>(entries.values());
+        });
+    }
+
+    /**
+     * Reads a single person by its internal MensaMax id as found by {@link #listPersons(ClientPriority)}.
+     */
+    public MensaMaxUser findUserByPersonId(final ClientPriority priority, final int personId) {
+        return withSession(priority, "requesting person " + personId, (client, cookieHeader) -> {
+            final String dataUrl = mensaMaxService.url(String.format(MensaMaxService.PERSON_BY_ID_PATH, personId));
+            final Document dataPage = send(client, cookieHeader, HttpRequest.newBuilder(URI.create(dataUrl)).GET(), MensaMaxService.PERSON_DATA_PATH);
+            if (dataPage.getElementById("tbxBenutzername") == null) {
+                throw new IllegalStateException("Person " + personId + " doesn't exist");
+            }
+            return readUserData(dataPage, readEmailPage(client, cookieHeader));
+        });
+    }
+
+    private <T> T withSession(final ClientPriority priority, final String description, final SessionRequest<T> request) {
+        final SeleniumClient client = mensaMaxService.getClientStack().obtainClient(priority);
+        try {
+            mensaMaxService.login(client);
+            final String cookieHeader = client.getWebDriver().manage().getCookies().stream()
+                    .map(cookie -> cookie.getName() + "=" + cookie.getValue()).collect(Collectors.joining("; "));
+            return request.execute(client, cookieHeader);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Error " + description, e);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while " + description, e);
+        } finally {
+            mensaMaxService.getClientStack().returnClient(client);
+        }
+    }
+
+    private Document submitSearch(final SeleniumClient client, final String cookieHeader, final Document searchPage, final String inputFieldName,
+                                  final String value, final String... expectedPaths) throws IOException, InterruptedException {
+        final Element inputField = searchPage.getElementById(inputFieldName);
+        final Element form = inputField != null ? inputField.closest("form") : null;
+        if (form == null) {
+            throw new IllegalStateException("Search page doesn't contain field " + inputFieldName);
+        }
+
+        final Map<String, String> formData = collectFormData(form);
+        formData.put(inputField.attr("name"), value);
+        addSubmitTrigger(form, inputField, formData);
+        return post(client, cookieHeader, form, searchPage.location(), formData, expectedPaths);
+    }
+
+    private Document post(final SeleniumClient client, final String cookieHeader, final Element form, final String fallbackUrl,
+                          final Map<String, String> formData, final String... expectedPaths) throws IOException, InterruptedException {
+        final String formBody = formData.entrySet().stream()
+                .map(entry -> URLEncoder.encode(entry.getKey(), StandardCharsets.UTF_8) + "=" + URLEncoder.encode(entry.getValue(), StandardCharsets.UTF_8))
+                .collect(Collectors.joining("&"));
+        final String actionUrl = form.hasAttr("action") ? form.absUrl("action") : fallbackUrl;
+        return send(client, cookieHeader, HttpRequest.newBuilder(URI.create(actionUrl))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(formBody)), expectedPaths);
+    }
+
+    private Document readEmailPage(final SeleniumClient client, final String cookieHeader) throws IOException, InterruptedException {
+        final String emailUrl = mensaMaxService.url(MensaMaxService.PERSON_EMAIL_PATH);
+        return send(client, cookieHeader, HttpRequest.newBuilder(URI.create(emailUrl)).GET(), MensaMaxService.PERSON_EMAIL_PATH);
+    }
+
+    private boolean isNoMatchShown(final Document searchPage) {
+        if (searchPage.getElementById(MensaMaxService.PERSON_SEARCH_EMPTY_ID) != null) {
+            return true;
+        }
+
+        final Element resultElement = searchPage.getElementById(MensaMaxService.PERSON_SEARCH_RESULTS_ID);
+        return resultElement != null && resultElement.select(MensaMaxService.PERSON_LINK_SELECTOR).isEmpty();
+    }
+
+    private Element findPageLink(final Document document, final int page) {
+        for (final Element link : document.select("a[href*=Page$]")) {
+            final Matcher matcher = PAGE_POSTBACK_PATTERN.matcher(link.attr("href"));
+            if (matcher.find() && Integer.parseInt(matcher.group(2)) == page) {
+                return link;
+            }
+        }
+        return null;
+    }
+
+    private Document send(final SeleniumClient client, final String cookieHeader, final HttpRequest.Builder requestBuilder,
+                          final String... expectedPaths) throws IOException, InterruptedException {
+        final HttpRequest request = requestBuilder.header("Cookie", cookieHeader).timeout(REQUEST_TIMEOUT).build();
+        final HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
+        final String path = response.uri().getPath();
+        if (response.statusCode() != 200 || Arrays.stream(expectedPaths).noneMatch(expectedPath -> expectedPath.equalsIgnoreCase(path))) {
+            // Most likely the session has expired, so make sure the client logs in again next time
+            client.setLastActionDate(0);
+            throw new IllegalStateException(String.format("Unexpected response %s from %s", response.statusCode(), response.uri()));
+        }
+        return Jsoup.parse(response.body(), response.uri().toString());
+    }
+
+    private Map<String, String> collectFormData(final Element form) {
+        // Includes __VIEWSTATE, __EVENTVALIDATION and the other hidden fields ASP.NET needs to accept the postback
+        final Map<String, String> formData = new LinkedHashMap<>();
+        for (final Element input : form.select("input[name]")) {
+            final String type = input.attr("type").toLowerCase(Locale.ROOT);
+            if (type.equals("submit") || type.equals("button") || type.equals("image") || type.equals("reset")
+                    || ((type.equals("checkbox") || type.equals("radio")) && !input.hasAttr("checked"))) {
+                continue;
+            }
+            formData.put(input.attr("name"), input.val());
+        }
+        for (final Element select : form.select("select[name]")) {
+            final Element option = Optional.ofNullable(select.selectFirst("option[selected]")).orElse(select.selectFirst("option"));
+            if (option != null) {
+                formData.put(select.attr("name"), option.val());
+            }
+        }
+        for (final Element textArea : form.select("textarea[name]")) {
+            formData.put(textArea.attr("name"), textArea.val());
+        }
+        return formData;
+    }
+
+    private void addSubmitTrigger(final Element form, final Element inputField, final Map<String, String> formData) {
+        // Pressing enter clicks the default button of the surrounding panel...
+        for (Element element = inputField; element != null && element != form.parent(); element = element.parent()) {
+            final Matcher matcher = DEFAULT_BUTTON_PATTERN.matcher(element.attr("onkeypress"));
+            if (matcher.find()) {
+                final Element button = form.getElementById(matcher.group(1));
+                if (button != null) {
+                    formData.put(button.attr("name"), button.val());
+                    return;
+                }
+            }
+        }
+
+        // ...triggers the auto postback of the field...
+        if (inputField.attr("onchange").contains("__doPostBack")) {
+            formData.put("__EVENTTARGET", inputField.attr("name"));
+            return;
+        }
+
+        // ...or submits the form with its first submit button
+        final Element submitButton = form.selectFirst("input[type=submit][name]");
+        if (submitButton != null) {
+            formData.put(submitButton.attr("name"), submitButton.val());
+        }
+    }
+
+    private MensaMaxUser readUserData(final Document dataPage, final Document emailPage) {
+        final String username = readValue(dataPage, "tbxBenutzername");
+        final String firstName = readValue(dataPage, "tbxVorname");
+        final String lastName = readValue(dataPage, "tbxNachname");
+        final String dateOfBirth = readValue(dataPage, "tbxGebDatum");
+        final String email = readValue(dataPage, "tbxEmail");
+
+        String userGroup = null;
+        final Element userGroupElement = dataPage.getElementById("cboKlasse");
+        if (userGroupElement != null) {
+            final Element option = Optional.ofNullable(userGroupElement.selectFirst("option[selected]")).orElse(userGroupElement.selectFirst("option"));
+            userGroup = option != null ? option.text() : null;
+        }
+
+        int employeeId = 0;
+        try {
+            final String employeeIdString = readValue(dataPage, "tbxPersNr");
+            if (employeeIdString != null && !employeeIdString.isEmpty()) {
+                employeeId = Integer.parseInt(employeeIdString);
+            }
+        } catch (final NumberFormatException e) {
+            log.warn("Invalid employeeId for user '{}'", username);
+        }
+
+        final List<String> contactEmails = new ArrayList<>();
+        final String contactEmailsString = readValue(emailPage, "tbxLastschriftEMail");
+        if (contactEmailsString != null && !contactEmailsString.isEmpty()) {
+            contactEmails.addAll(List.of(contactEmailsString.split(",")));
+        }
+
+        return new MensaMaxUser(username, firstName, lastName, email, contactEmails, dateOfBirth, userGroup, employeeId);
+    }
+
+    private String readValue(final Document document, final String id) {
+        final Element element = document.getElementById(id);
+        return element != null ? element.val() : null;
+    }
+
+    @FunctionalInterface
+    private interface SessionRequest<T> {
+
+        T execute(final SeleniumClient client, final String cookieHeader) throws IOException, InterruptedException;
+    }
+}
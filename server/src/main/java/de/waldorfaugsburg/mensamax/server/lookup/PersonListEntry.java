@@ -0,0 +1,7 @@
+package de.waldorfaugsburg.mensamax.server.lookup;
+
+/**
+ * A row of the MensaMax person list. The fingerprint changes whenever the visible data of the row changes.
+ */
+public record PersonListEntry(int personId, String fingerprint) {
+}
@@ -0,0 +1,106 @@
+package de.waldorfaugsburg.mensamax.server.lookup;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.exception.InvalidFieldException;
+import de.waldorfaugsburg.mensamax.server.exception.MensaMaxTimeoutException;
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
+import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
+import de.waldorfaugsburg.mensamax.server.service.MensaMaxService;
+import de.waldorfaugsburg.mensamax.server.service.SeleniumService;
+import lombok.extern.slf4j.Slf4j;
+import org.openqa.selenium.By;
+import org.openqa.selenium.Keys;
+import org.openqa.selenium.TimeoutException;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.support.ui.ExpectedConditions;
+import org.openqa.selenium.support.ui.Select;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Slf4j
+public final class SeleniumUserLookupEngine implements UserLookupEngine {
+
+    private final MensaMaxService mensaMaxService;
+    private final SeleniumService seleniumService;
+
+    public SeleniumUserLookupEngine(final MensaMaxService mensaMaxService, final SeleniumService seleniumService) {
+        this.mensaMaxService = mensaMaxService;
+        this.seleniumService = seleniumService;
+    }
+
+    @Override
+    public MensaMaxUser findUserByInputField(final ClientPriority priority, final String inputFieldName, final String value) throws InvalidFieldException {
+        final SeleniumClient client = mensaMaxService.getClientStack().obtainClient(priority);
+        final WebDriver webDriver = client.getWebDriver();
+        try {
+            mensaMaxService.login(client);
+            webDriver.get(mensaMaxService.url(MensaMaxService.PERSON_SEARCH_PATH));
+
+            final WebElement inputElement = seleniumService.waitUntilElementPresent(webDriver, By.id(inputFieldName));
+            inputElement.clear();
+            inputElement.sendKeys(value, Keys.ENTER);
+
+            // MensaMax either opens the person or renders the search page again if nobody matches
+            final String dataUrl = mensaMaxService.url(MensaMaxService.PERSON_DATA_PATH);
+            seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlContains(dataUrl), ExpectedConditions.stalenessOf(inputElement)));
+            if (!webDriver.getCurrentUrl().startsWith(dataUrl) && mensaMaxService.isNoMatchShown(webDriver)) {
+                log.error("Couldn't find user by field '{}' with value '{}'", inputFieldName, value);
+                throw new InvalidFieldException(inputFieldName, value);
+            }
+            if (!webDriver.getCurrentUrl().startsWith(dataUrl)) {
+                // Neither the person nor an empty result, so nothing is known about the user yet
+                log.error("MensaMax didn't show whether a user with field '{}' and value '{}' exists", inputFieldName, value);
+                throw new MensaMaxTimeoutException("looking up field " + inputFieldName);
+            }
+
+            log.info("Requested user by field '{}' with value '{}'", inputFieldName, value);
+            return readUserData(webDriver);
+        } catch (final InvalidFieldException | MensaMaxTimeoutException e) {
+            throw e;
+        } catch (final TimeoutException e) {
+            // A slow answer says nothing about the user, so it must not end up in the negative cache
+            log.error("MensaMax didn't answer the lookup of field '{}' with value '{}' in time", inputFieldName, value);
+            throw new MensaMaxTimeoutException("looking up field " + inputFieldName, e);
+        } catch (final Exception e) {
+            log.error("An error occurred while requesting user field '{}' with value '{}'", inputFieldName, value, e);
+            throw new InvalidFieldException(inputFieldName, value, e);
+        } finally {
+            mensaMaxService.getClientStack().returnClient(client);
+        }
+    }
+
+    private MensaMaxUser readUserData(final WebDriver webDriver) throws TimeoutException {
+        seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlContains(mensaMaxService.url(MensaMaxService.PERSON_DATA_PATH)),
+                ExpectedConditions.urlMatches(mensaMaxService.url(MensaMaxService.PERSON_CREATE_PATH))));
+
+        final String username = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBenutzername")).getDomAttribute("value");
+        final String firstName = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxVorname")).getDomAttribute("value");
+        final String lastName = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxNachname")).getDomAttribute("value");
+        final String dateOfBirth = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxGebDatum")).getDomAttribute("value");
+        final String email = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxEmail")).getDomAttribute("value");
+        final String userGroup = new Select(seleniumService.waitUntilElementPresent(webDriver, By.id("cboKlasse"))).getFirstSelectedOption().getText();
+        int employeeId = 0;
+        try {
+            final String employeeIdString = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxPersNr")).getDomAttribute("value");
+            if (employeeIdString != null && !employeeIdString.isEmpty()) {
+                employeeId = Integer.parseInt(employeeIdString);
+            }
+        } catch (final NumberFormatException e) {
+            log.warn("Invalid employeeId for user '{}'", username);
+        }
+
+        final String emailUrl = mensaMaxService.url(MensaMaxService.PERSON_EMAIL_PATH);
+        webDriver.get(emailUrl);
+        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(emailUrl));
+
+        final List<String> contactEmails = new ArrayList<>();
+        final String contactEmailsString = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxLastschriftEMail")).getText();
+        if (!contactEmailsString.isEmpty()) {
+            contactEmails.addAll(List.of(contactEmailsString.split(",")));
+        }
+
+        return new MensaMaxUser(username, firstName, lastName, email, contactEmails, dateOfBirth, userGroup, employeeId);
+    }
+}
@@ -0,0 +1,17 @@
+package de.waldorfaugsburg.mensamax.server.lookup;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.exception.InvalidFieldException;
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
+
+public interface UserLookupEngine {
+
+    /**
+     * Searches MensaMax for a user by one of the fields of the person search form.
+     *
+     * @param priority the priority to obtain a client with, depending on whether somebody is waiting for the answer
+     * @throws InvalidFieldException if MensaMax doesn't know a user with the given value
+     * @throws de.waldorfaugsburg.mensamax.server.exception.MensaMaxTimeoutException if MensaMax didn't answer in time
+     */
+    MensaMaxUser findUserByInputField(final ClientPriority priority, final String inputFieldName, final String value) throws InvalidFieldException;
+}
@@ -0,0 +1,7 @@
+package de.waldorfaugsburg.mensamax.server.lookup;
+
+public enum UserLookupEngineType {
+
+    SELENIUM,
+    HTTP,
+}
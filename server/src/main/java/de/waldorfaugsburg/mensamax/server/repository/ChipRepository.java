@@ -0,0 +1,10 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxChipEntity;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface ChipRepository extends CrudRepository<MensaMaxChipEntity, String> {
+
+}
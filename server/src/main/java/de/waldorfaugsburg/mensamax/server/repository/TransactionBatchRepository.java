@@ -0,0 +1,25 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import org.springframework.transaction.annotation.Transactional;
+
+import java.util.List;
+
+public interface TransactionBatchRepository {
+
+    /**
+     * Inserts all transactions with a single JDBC batch and assigns the generated ids to the given entities. Either all
+     * of them are inserted or none.
+     */
+    @Transactional
+    void insertAll(final List<MensaMaxTransactionEntity> transactions);
+
+    /**
+     * Drops the check constraints of the status column. Hibernate only generates them when it creates the table, so on
+     * databases created before later statuses were appended they reject the ordinals of these statuses.
+     *
+     * @return the number of dropped constraints
+     */
+    @Transactional
+    int dropStatusCheckConstraints();
+}
@@ -0,0 +1,75 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.List;
+import java.util.Map;
+
+class TransactionBatchRepositoryImpl implements TransactionBatchRepository {
+
+    private static final String INSERT_SQL = "INSERT INTO mensa_max_transaction_entity (username, chip, kiosk, barcode, quantity, status, recorded_at, idempotency_key) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+    private static final String STATUS_CHECK_CONSTRAINTS_SQL = "SELECT tc.constraint_name FROM information_schema.table_constraints tc JOIN information_schema.constraint_column_usage ccu ON ccu.constraint_schema = tc.constraint_schema AND ccu.constraint_name = tc.constraint_name WHERE tc.constraint_type = 'CHECK' AND tc.table_schema = CURRENT_SCHEMA AND UPPER(tc.table_name) = 'MENSA_MAX_TRANSACTION_ENTITY' AND UPPER(ccu.column_name) = 'STATUS'";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    TransactionBatchRepositoryImpl(final DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    @Override
+    public void insertAll(final List<MensaMaxTransactionEntity> transactions) {
+        if (transactions.isEmpty()) {
+            return;
+        }
+
+        final KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(connection -> connection.prepareStatement(INSERT_SQL, Statement.RETURN_GENERATED_KEYS), new BatchPreparedStatementSetter() {
+            @Override
+            public void setValues(final PreparedStatement statement, final int i) throws SQLException {
+                final MensaMaxTransactionEntity transaction = transactions.get(i);
+                statement.setString(1, transaction.getUsername());
+                statement.setString(2, transaction.getChip());
+                statement.setString(3, transaction.getKiosk());
+                statement.setLong(4, transaction.getBarcode());
+                statement.setInt(5, transaction.getQuantity());
+                // Status is stored by its ordinal
+                statement.setInt(6, transaction.getStatus().ordinal());
+                statement.setTimestamp(7, Timestamp.from(transaction.getRecordedAt()));
+                if (transaction.getIdempotencyKey() != null) {
+                    statement.setString(8, transaction.getIdempotencyKey());
+                } else {
+                    statement.setNull(8, Types.VARCHAR);
+                }
+            }
+
+            @Override
+            public int getBatchSize() {
+                return transactions.size();
+            }
+        }, keyHolder);
+
+        final List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < transactions.size(); i++) {
+            transactions.get(i).setId(((Number) keys.get(i).values().iterator().next()).longValue());
+        }
+    }
+
+    @Override
+    public int dropStatusCheckConstraints() {
+        final List<String> constraintNames = jdbcTemplate.queryForList(STATUS_CHECK_CONSTRAINTS_SQL, String.class);
+        for (final String constraintName : constraintNames) {
+            jdbcTemplate.execute("ALTER TABLE mensa_max_transaction_entity DROP CONSTRAINT \"" + constraintName + "\"");
+        }
+        return constraintNames.size();
+    }
+}
@@ -2,17 +2,43 @@ package de.waldorfaugsburg.mensamax.server.repository;
 
 import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+import java.util.Collection;
 import java.util.List;
-import java.util.stream.Stream;
+import java.util.Optional;
 
 @Repository
-public interface TransactionRepository extends CrudRepository<MensaMaxTransactionEntity, Long> {
+public interface TransactionRepository extends CrudRepository<MensaMaxTransactionEntity, Long>, JpaSpecificationExecutor<MensaMaxTransactionEntity>,
+        TransactionBatchRepository {
+
+    Optional<MensaMaxTransactionEntity> findByIdempotencyKey(final String idempotencyKey);
+
+    List<MensaMaxTransactionEntity> findAllByIdempotencyKeyIn(final Collection<String> idempotencyKeys);
 
     List<MensaMaxTransactionEntity> findAllByStatus(final TransactionStatus status);
 
-    Stream<MensaMaxTransactionEntity> streamAllByStatus(final TransactionStatus status);
+    long countByStatus(final TransactionStatus status);
+
+    List<MensaMaxTransactionEntity> findAllByStatusAndUsernameIsNull(final TransactionStatus status);
+
+    List<MensaMaxTransactionEntity> findAllByStatusAndUsernameIsNotNullOrderByIdAsc(final TransactionStatus status, final Limit limit);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MensaMaxTransactionEntity t SET t.status = :newStatus WHERE t.id = :id AND t.status = :expectedStatus")
+    int compareAndSetStatus(@Param("id") final long id, @Param("expectedStatus") final TransactionStatus expectedStatus, @Param("newStatus") final TransactionStatus newStatus);
+
+    @Transactional
+    @Modifying
+    @Query("UPDATE MensaMaxTransactionEntity t SET t.status = :newStatus WHERE t.status = :expectedStatus")
+    int replaceStatus(@Param("expectedStatus") final TransactionStatus expectedStatus, @Param("newStatus") final TransactionStatus newStatus);
 
 }
@@ -0,0 +1,48 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import jakarta.annotation.Nullable;
+import jakarta.persistence.criteria.Predicate;
+import org.springframework.data.jpa.domain.Specification;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class TransactionSpecifications {
+
+    private TransactionSpecifications() {
+    }
+
+    /**
+     * Matches the transactions of the filter with an id greater than the cursor, so pages can be walked by id instead
+     * of by offset.
+     */
+    public static Specification<MensaMaxTransactionEntity> matching(final TransactionFilter filter, @Nullable final Long afterId) {
+        return (root, query, builder) -> {
+            final List<Predicate> predicates = new ArrayList<>();
+            if (afterId != null) {
+                predicates.add(builder.greaterThan(root.get("id"), afterId));
+            }
+            if (filter.getStatus() != null) {
+                predicates.add(builder.equal(root.get("status"), filter.getStatus()));
+            }
+            if (filter.getRecordedFrom() != null) {
+                predicates.add(builder.greaterThanOrEqualTo(root.get("recordedAt"), filter.getRecordedFrom().toInstant()));
+            }
+            if (filter.getRecordedTo() != null) {
+                predicates.add(builder.lessThan(root.get("recordedAt"), filter.getRecordedTo().toInstant()));
+            }
+            if (filter.getKiosk() != null) {
+                predicates.add(builder.equal(root.get("kiosk"), filter.getKiosk()));
+            }
+            if (filter.getUsername() != null) {
+                predicates.add(builder.equal(root.get("username"), filter.getUsername()));
+            }
+            if (filter.getBarcode() != null) {
+                predicates.add(builder.equal(root.get("barcode"), filter.getBarcode()));
+            }
+            return builder.and(predicates.toArray(Predicate[]::new));
+        };
+    }
+}
@@ -0,0 +1,10 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxUserEntity;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface UserRepository extends CrudRepository<MensaMaxUserEntity, String> {
+
+}
@@ -0,0 +1,32 @@
+package de.waldorfaugsburg.mensamax.server.selenium;
+
+import lombok.Getter;
+
+import java.time.Duration;
+
+/**
+ * Order in which waiting requests are served by a {@link SeleniumClientStack}. A client always goes to the highest
+ * priority with waiting requests, within a priority requests are served in order of arrival.
+ */
+@Getter
+public enum ClientPriority {
+
+    /**
+     * Someone is standing at a kiosk waiting for the answer, e.g. user lookups and chip resolution.
+     */
+    INTERACTIVE(Duration.ofSeconds(5)),
+    /**
+     * Settlement of recorded transactions, which are simply retried later if no client could be obtained.
+     */
+    BACKGROUND(Duration.ofSeconds(30)),
+    /**
+     * Administrative changes like creating users, which may wait for the kiosks to calm down.
+     */
+    ADMIN(Duration.ofSeconds(30));
+
+    private final Duration defaultObtainTimeout;
+
+    ClientPriority(final Duration defaultObtainTimeout) {
+        this.defaultObtainTimeout = defaultObtainTimeout;
+    }
+}
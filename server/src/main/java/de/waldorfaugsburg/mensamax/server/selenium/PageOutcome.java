@@ -0,0 +1,17 @@
+package de.waldorfaugsburg.mensamax.server.selenium;
+
+import jakarta.annotation.Nullable;
+
+/**
+ * What a page ended up showing after an action: a notice dialog, another page or just the same page again.
+ */
+public record PageOutcome(Type type, @Nullable String dialogText) {
+
+    public enum Type {
+
+        SETTLED,
+        NAVIGATED,
+        DIALOG,
+        TIMEOUT,
+    }
+}
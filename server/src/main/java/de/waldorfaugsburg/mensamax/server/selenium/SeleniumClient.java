@@ -1,29 +1,77 @@
 package de.waldorfaugsburg.mensamax.server.selenium;
 
+import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.WebDriver;
 import org.openqa.selenium.firefox.FirefoxDriver;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+import org.openqa.selenium.support.events.EventFiringDecorator;
+import org.openqa.selenium.support.events.WebDriverListener;
 
 import java.io.Closeable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Getter
 public final class SeleniumClient implements Closeable {
 
     private final int instanceId;
-    private final FirefoxDriver webDriver;
+    private final FirefoxDriver firefoxDriver;
+    private final WebDriver webDriver;
+    @Getter(AccessLevel.NONE)
+    private final Runnable closeListener;
 
     @Setter
     private long lastActionDate;
     @Setter
     private String currentKiosk;
+    @Setter
+    private long idleSince;
+
+    private volatile boolean defective;
+    @Getter(AccessLevel.NONE)
+    private final AtomicBoolean closed = new AtomicBoolean();
 
-    public SeleniumClient(final int instanceId, final FirefoxDriver webDriver) {
+    /**
+     * @param closeListener called once the browser has been quit, but not if quitting it failed
+     */
+    public SeleniumClient(final int instanceId, final FirefoxDriver firefoxDriver, final Runnable closeListener) {
         this.instanceId = instanceId;
-        this.webDriver = webDriver;
+        this.firefoxDriver = firefoxDriver;
+        this.closeListener = closeListener;
+        this.webDriver = new EventFiringDecorator<WebDriver>(new DefectListener()).decorate(firefoxDriver);
+    }
+
+    public boolean isResponsive() {
+        try {
+            firefoxDriver.getWindowHandle();
+            return true;
+        } catch (final Exception e) {
+            return false;
+        }
     }
 
     @Override
     public void close() {
-        webDriver.quit();
+        if (closed.compareAndSet(false, true)) {
+            firefoxDriver.quit();
+            closeListener.run();
+        }
+    }
+
+    private final class DefectListener implements WebDriverListener {
+
+        @Override
+        public void onError(final Object target, final Method method, final Object[] args, final InvocationTargetException e) {
+            // Errors like these won't go away by themselves, so the browser has to be replaced
+            final Throwable cause = e.getCause();
+            if (cause instanceof NoSuchSessionException || cause instanceof SessionNotCreatedException || cause instanceof UnreachableBrowserException) {
+                defective = true;
+            }
+        }
     }
 }
@@ -1,42 +1,485 @@
 package de.waldorfaugsburg.mensamax.server.selenium;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.waldorfaugsburg.mensamax.server.exception.NoClientsAvailableException;
 import de.waldorfaugsburg.mensamax.server.exception.UnknownErrorException;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 
 import java.io.Closeable;
-import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.TimeUnit;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
+/**
+ * Pool of logged in clients. Requests which can't be served right away wait in one queue per {@link ClientPriority}
+ * until a client is returned or their deadline passes.
+ */
 @Slf4j
-public record SeleniumClientStack(BlockingQueue<SeleniumClient> clients) implements Closeable {
+public final class SeleniumClientStack implements Closeable {
 
-    public SeleniumClient obtainClient() {
+    private static final long HEALTH_CHECK_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(10);
+    // Amount of times a waiting request may be overtaken by requests for the kiosk a returned client is already on
+    private static final int MAX_BYPASS_COUNT = 3;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final List<SeleniumClient> clients = new ArrayList<>();
+    private final Deque<SeleniumClient> idleClients = new ArrayDeque<>();
+    private final Map<ClientPriority, Deque<ClientRequest>> waitingRequests = new EnumMap<>(ClientPriority.class);
+    private int waitingRequestCount;
+    private int pendingClientCount;
+    private boolean closed;
+
+    private final Supplier<SeleniumClient> clientFactory;
+    private final int minClientCount;
+    private final int maxClientCount;
+    private final Duration idleTimeout;
+    private final Map<ClientPriority, Duration> obtainTimeouts = new EnumMap<>(ClientPriority.class);
+    private final ExecutorService executor;
+
+    private final Counter kioskAffinityCounter;
+    private final Counter kioskSwitchCounter;
+    private final Counter avoidedKioskSwitchCounter;
+    private final Map<ClientPriority, Timer> obtainSuccessTimers = new EnumMap<>(ClientPriority.class);
+    private final Map<ClientPriority, Timer> obtainTimeoutTimers = new EnumMap<>(ClientPriority.class);
+    private final MeterRegistry meterRegistry;
+
+    public SeleniumClientStack(final Supplier<SeleniumClient> clientFactory, final int minClientCount, final int maxClientCount,
+                               final Duration idleTimeout, @Nullable final Map<ClientPriority, Duration> obtainTimeouts,
+                               final MeterRegistry meterRegistry) {
+        this.clientFactory = clientFactory;
+        this.minClientCount = minClientCount;
+        this.maxClientCount = Math.max(minClientCount, maxClientCount);
+        this.idleTimeout = idleTimeout;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder().setNameFormat("selenium-client-%d").setDaemon(true).build());
+        this.meterRegistry = meterRegistry;
+
+        this.kioskAffinityCounter = Counter.builder("selenium.clients.kiosk.assignments").tag("result", "affinity").register(meterRegistry);
+        this.kioskSwitchCounter = Counter.builder("selenium.clients.kiosk.assignments").tag("result", "switch").register(meterRegistry);
+        this.avoidedKioskSwitchCounter = Counter.builder("selenium.clients.kiosk.switches.avoided").register(meterRegistry);
+        for (final ClientPriority priority : ClientPriority.values()) {
+            final String priorityTag = priority.name().toLowerCase(Locale.ROOT);
+            waitingRequests.put(priority, new ArrayDeque<>());
+            this.obtainTimeouts.put(priority, obtainTimeouts != null && obtainTimeouts.containsKey(priority)
+                    ? obtainTimeouts.get(priority) : priority.getDefaultObtainTimeout());
+            obtainSuccessTimers.put(priority, Timer.builder("selenium.clients.obtain").tag("result", "success").tag("priority", priorityTag)
+                    .publishPercentileHistogram().register(meterRegistry));
+            obtainTimeoutTimers.put(priority, Timer.builder("selenium.clients.obtain").tag("result", "timeout").tag("priority", priorityTag)
+                    .register(meterRegistry));
+            Gauge.builder("selenium.clients.waiting", this, stack -> stack.countWaitingRequests(priority)).tag("priority", priorityTag)
+                    .register(meterRegistry);
+        }
+
+        Gauge.builder("selenium.clients", this, stack -> stack.countClients(false)).tag("state", "busy").register(meterRegistry);
+        Gauge.builder("selenium.clients", this, stack -> stack.countClients(true)).tag("state", "idle").register(meterRegistry);
+        Gauge.builder("selenium.clients.pending", this, stack -> stack.pendingClientCount).register(meterRegistry);
+
+        // Clients are started concurrently and become available one by one
+        lock.lock();
+        try {
+            replenish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public SeleniumClient obtainClient(final ClientPriority priority) {
+        return obtainClient(priority, null);
+    }
+
+    public SeleniumClient obtainClient(final ClientPriority priority, @Nullable final String kiosk) {
+        return obtainClient(priority, kiosk, obtainTimeouts.get(priority));
+    }
+
+    /**
+     * Obtains an idle client or waits for one to be returned, preferring a client which is already on the given kiosk.
+     *
+     * @throws NoClientsAvailableException if no client could be obtained within the timeout
+     */
+    public SeleniumClient obtainClient(final ClientPriority priority, @Nullable final String kiosk, final Duration timeout) {
+        final long startTime = System.nanoTime();
+        lock.lock();
         try {
-            final SeleniumClient client = clients.poll(5, TimeUnit.SECONDS);
-            if (client == null) {
-                log.error("Error obtaining client: no clients available!");
-                throw new NoClientsAvailableException();
+            // Don't overtake requests which are already waiting
+            if (waitingRequestCount == 0 && !idleClients.isEmpty()) {
+                final SeleniumClient client = takeIdleClient(kiosk);
+                obtainSuccessTimers.get(priority).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                log.info("Client '{}' obtained!", client.getInstanceId());
+                return client;
+            }
+
+            final ClientRequest request = new ClientRequest(priority, kiosk, lock.newCondition());
+            waitingRequests.get(priority).addLast(request);
+            waitingRequestCount++;
+            scaleUp();
+            try {
+                long remainingNanos = timeout.toNanos();
+                while (request.client == null) {
+                    if (remainingNanos <= 0) {
+                        removeWaitingRequest(request);
+                        obtainTimeoutTimers.get(priority).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                        log.error("Error obtaining {} client: no clients available within {}!", priority, timeout);
+                        throw new NoClientsAvailableException();
+                    }
+                    remainingNanos = request.condition.awaitNanos(remainingNanos);
+                }
+            } catch (final InterruptedException e) {
+                removeWaitingRequest(request);
+                if (request.client != null) {
+                    handOverClient(request.client);
+                }
+
+                log.error("Error obtaining a client", e);
+                throw new UnknownErrorException(e);
             }
 
-            log.info("Client '{}' obtained!", client.getInstanceId());
-            return client;
-        } catch (final InterruptedException e) {
-            log.error("Error obtaining a client", e);
-            throw new UnknownErrorException(e);
+            obtainSuccessTimers.get(priority).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            log.info("Client '{}' obtained!", request.client.getInstanceId());
+            return request.client;
+        } finally {
+            lock.unlock();
         }
     }
 
     public void returnClient(final SeleniumClient client) {
-        clients.add(client);
+        if (client.isDefective()) {
+            log.warn("Client '{}' returned in a defective state", client.getInstanceId());
+            evictClient(client, "defective");
+            return;
+        }
+
+        lock.lock();
+        try {
+            handOverClient(client);
+        } finally {
+            lock.unlock();
+        }
         log.info("Client '{}' returned!", client.getInstanceId());
     }
 
+    public void checkHealth() {
+        final List<SeleniumClient> checkedClients;
+        lock.lock();
+        try {
+            final long idleLimit = System.currentTimeMillis() - idleTimeout.toMillis();
+            int removableClientCount = clients.size() + pendingClientCount - minClientCount;
+            for (final SeleniumClient client : new ArrayList<>(idleClients)) {
+                if (removableClientCount > 0 && client.getIdleSince() < idleLimit) {
+                    idleClients.remove(client);
+                    clients.remove(client);
+                    removableClientCount--;
+                    countEviction("idle");
+                    closeInBackground(client);
+                    log.info("Client '{}' removed after being idle for too long", client.getInstanceId());
+                }
+            }
+            checkedClients = new ArrayList<>(idleClients);
+        } finally {
+            lock.unlock();
+        }
+
+        for (final SeleniumClient client : checkedClients) {
+            // Only check clients which haven't been obtained in the meantime
+            lock.lock();
+            try {
+                if (!idleClients.remove(client)) {
+                    continue;
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            final Future<Boolean> probe;
+            try {
+                probe = executor.submit(client::isResponsive);
+            } catch (final RejectedExecutionException e) {
+                // Stack has been closed in the meantime, which also closed the client
+                return;
+            }
+            boolean responsive;
+            try {
+                responsive = probe.get(HEALTH_CHECK_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                responsive = true;
+            } catch (final ExecutionException | TimeoutException e) {
+                probe.cancel(true);
+                responsive = false;
+            }
+
+            if (responsive) {
+                lock.lock();
+                try {
+                    handOverClient(client);
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                log.warn("Client '{}' failed health check", client.getInstanceId());
+                evictClient(client, "unhealthy");
+            }
+        }
+
+        // Brings the stack back to its minimum after clients failed to start, even if no request asks for more
+        lock.lock();
+        try {
+            replenish();
+        } finally {
+            lock.unlock();
+        }
+    }
+
     @Override
-    public void close() throws IOException {
-        for (final SeleniumClient client : clients) {
+    public void close() {
+        final List<SeleniumClient> closedClients;
+        lock.lock();
+        try {
+            closed = true;
+            closedClients = new ArrayList<>(clients);
+            clients.clear();
+            idleClients.clear();
+        } finally {
+            lock.unlock();
+        }
+
+        executor.shutdownNow();
+        for (final SeleniumClient client : closedClients) {
             client.close();
         }
     }
+
+    private void evictClient(final SeleniumClient client, final String reason) {
+        lock.lock();
+        try {
+            clients.remove(client);
+            idleClients.remove(client);
+            countEviction(reason);
+            replenish();
+        } finally {
+            lock.unlock();
+        }
+
+        closeInBackground(client);
+        log.info("Client '{}' evicted ({})", client.getInstanceId(), reason);
+    }
+
+    private void closeInBackground(final SeleniumClient client) {
+        final Runnable closeTask = () -> {
+            try {
+                client.close();
+            } catch (final Exception e) {
+                log.warn("Error closing client '{}'", client.getInstanceId(), e);
+            }
+        };
+
+        // Closing a hung browser may block, so don't let the caller wait for it
+        try {
+            executor.execute(closeTask);
+        } catch (final RejectedExecutionException e) {
+            // Stack has been closed in the meantime, nobody else is going to close the already removed client
+            closeTask.run();
+        }
+    }
+
+    private void countEviction(final String reason) {
+        Counter.builder("selenium.clients.evicted").tag("reason", reason).register(meterRegistry).increment();
+    }
+
+    private void addClient(final SeleniumClient client) {
+        lock.lock();
+        try {
+            if (closed) {
+                client.close();
+                return;
+            }
+
+            clients.add(client);
+            handOverClient(client);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void scaleUp() {
+        // One new client for every request that can't be served by a client already being created
+        if (waitingRequestCount > pendingClientCount && clients.size() + pendingClientCount < maxClientCount) {
+            createClient();
+        }
+    }
+
+    private void replenish() {
+        while (clients.size() + pendingClientCount < minClientCount) {
+            createClient();
+        }
+        scaleUp();
+    }
+
+    private void createClient() {
+        if (closed) {
+            return;
+        }
+
+        pendingClientCount++;
+        executor.execute(() -> {
+            try {
+                // Clients are logged in by the factory before they join the stack
+                final SeleniumClient client = clientFactory.get();
+                lock.lock();
+                try {
+                    pendingClientCount--;
+                    addClient(client);
+                } finally {
+                    lock.unlock();
+                }
+                log.info("Client '{}' added to stack", client.getInstanceId());
+            } catch (final Exception e) {
+                lock.lock();
+                try {
+                    pendingClientCount--;
+                } finally {
+                    lock.unlock();
+                }
+                log.error("Error creating a client", e);
+            }
+        });
+    }
+
+    private int countClients(final boolean idle) {
+        lock.lock();
+        try {
+            return idle ? idleClients.size() : clients.size() - idleClients.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private int countWaitingRequests(final ClientPriority priority) {
+        lock.lock();
+        try {
+            return waitingRequests.get(priority).size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void removeWaitingRequest(final ClientRequest request) {
+        if (waitingRequests.get(request.priority).remove(request)) {
+            waitingRequestCount--;
+        }
+    }
+
+    private SeleniumClient takeIdleClient(@Nullable final String kiosk) {
+        final SeleniumClient defaultClient = idleClients.getFirst();
+        SeleniumClient selectedClient = defaultClient;
+        if (kiosk != null) {
+            for (final SeleniumClient client : idleClients) {
+                if (kiosk.equals(client.getCurrentKiosk())) {
+                    selectedClient = client;
+                    break;
+                }
+            }
+
+            if (selectedClient != defaultClient && !kiosk.equals(defaultClient.getCurrentKiosk())) {
+                avoidedKioskSwitchCounter.increment();
+            }
+        }
+
+        idleClients.remove(selectedClient);
+        recordAssignment(kiosk, selectedClient);
+        return selectedClient;
+    }
+
+    private void handOverClient(final SeleniumClient client) {
+        final ClientRequest request = selectWaitingRequest(client);
+        if (request == null) {
+            client.setIdleSince(System.currentTimeMillis());
+            idleClients.addLast(client);
+            return;
+        }
+
+        removeWaitingRequest(request);
+        request.client = client;
+        recordAssignment(request.kiosk, client);
+        request.condition.signal();
+    }
+
+    private ClientRequest selectWaitingRequest(final SeleniumClient client) {
+        // Kiosk affinity only ever reorders requests of the same priority
+        Deque<ClientRequest> queue = null;
+        for (final Deque<ClientRequest> priorityQueue : waitingRequests.values()) {
+            if (!priorityQueue.isEmpty()) {
+                queue = priorityQueue;
+                break;
+            }
+        }
+        if (queue == null) {
+            return null;
+        }
+
+        final ClientRequest oldestRequest = queue.getFirst();
+        if (client.getCurrentKiosk() == null || client.getCurrentKiosk().equals(oldestRequest.kiosk)
+                || oldestRequest.bypassCount >= MAX_BYPASS_COUNT) {
+            return oldestRequest;
+        }
+
+        // Prefer a request for the kiosk the client is already on, but never let older requests starve
+        for (final ClientRequest request : queue) {
+            if (client.getCurrentKiosk().equals(request.kiosk)) {
+                for (final ClientRequest bypassedRequest : queue) {
+                    if (bypassedRequest == request) {
+                        break;
+                    }
+                    bypassedRequest.bypassCount++;
+                }
+
+                avoidedKioskSwitchCounter.increment();
+                return request;
+            }
+
+            if (request.bypassCount >= MAX_BYPASS_COUNT) {
+                break;
+            }
+        }
+        return oldestRequest;
+    }
+
+    private void recordAssignment(@Nullable final String kiosk, final SeleniumClient client) {
+        if (kiosk == null) {
+            return;
+        }
+
+        if (kiosk.equals(client.getCurrentKiosk())) {
+            kioskAffinityCounter.increment();
+        } else {
+            kioskSwitchCounter.increment();
+        }
+    }
+
+    private static final class ClientRequest {
+
+        private final ClientPriority priority;
+        private final String kiosk;
+        private final Condition condition;
+        private SeleniumClient client;
+        private int bypassCount;
+
+        private ClientRequest(final ClientPriority priority, final String kiosk, final Condition condition) {
+            this.priority = priority;
+            this.kiosk = kiosk;
+            this.condition = condition;
+        }
+    }
 }
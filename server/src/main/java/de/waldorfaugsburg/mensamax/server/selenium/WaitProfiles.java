@@ -0,0 +1,23 @@
+package de.waldorfaugsburg.mensamax.server.selenium;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Timeouts of the individual wait steps. Every step waits for its configured timeout, or the default one if the step
+ * isn't configured.
+ */
+public final class WaitProfiles {
+
+    private final Duration defaultTimeout;
+    private final Map<String, Duration> configuredTimeouts;
+
+    public WaitProfiles(final Duration defaultTimeout, final Map<String, Duration> configuredTimeouts) {
+        this.defaultTimeout = defaultTimeout;
+        this.configuredTimeouts = configuredTimeouts != null ? Map.copyOf(configuredTimeouts) : Map.of();
+    }
+
+    public Duration getTimeout(final String step) {
+        return configuredTimeouts.getOrDefault(step, defaultTimeout);
+    }
+}
@@ -0,0 +1,14 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheStats;
+
+public record CacheStatistics(String name, long size, long hitCount, long missCount, double hitRate, long loadSuccessCount,
+                              long loadExceptionCount, double averageLoadMillis, long evictionCount) {
+
+    public static CacheStatistics of(final String name, final Cache<?, ?> cache) {
+        final CacheStats stats = cache.stats();
+        return new CacheStatistics(name, cache.size(), stats.hitCount(), stats.missCount(), stats.hitRate(), stats.loadSuccessCount(),
+                stats.loadExceptionCount(), stats.averageLoadPenalty() / 1_000_000D, stats.evictionCount());
+    }
+}
@@ -0,0 +1,54 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.server.exception.*;
+import de.waldorfaugsburg.mensamax.server.selenium.PageOutcome;
+
+/**
+ * Outcome of scanning a product or paying, classified by the notice dialog MensaMax shows.
+ */
+enum CheckoutOutcome {
+
+    SUCCESS(null),
+    INVALID_PRODUCT("identifiziert"),
+    ACCOUNT_OVERDRAWN("Kreditrahmen"),
+    NO_STOCK("Lagerbestand"),
+    ACCOUNT_DAILY_LIMIT("Tageslimit"),
+    UNKNOWN_ERROR(null),
+    NO_ANSWER(null);
+
+    private final String dialogKeyword;
+
+    CheckoutOutcome(final String dialogKeyword) {
+        this.dialogKeyword = dialogKeyword;
+    }
+
+    static CheckoutOutcome of(final PageOutcome pageOutcome) {
+        // Without an answer the action may or may not have gone through, which must never pass as a success
+        if (pageOutcome.type() == PageOutcome.Type.TIMEOUT) {
+            return NO_ANSWER;
+        }
+        if (pageOutcome.type() != PageOutcome.Type.DIALOG) {
+            return SUCCESS;
+        }
+
+        for (final CheckoutOutcome outcome : values()) {
+            if (outcome.dialogKeyword != null && pageOutcome.dialogText().contains(outcome.dialogKeyword)) {
+                return outcome;
+            }
+        }
+        return UNKNOWN_ERROR;
+    }
+
+    RuntimeException toException(final MensaMaxTransactionEntity entity, final PageOutcome pageOutcome) {
+        return switch (this) {
+            case SUCCESS -> throw new IllegalStateException("Successful outcome has no exception");
+            case INVALID_PRODUCT -> new InvalidProductException(entity.getBarcode(), entity.getKiosk());
+            case ACCOUNT_OVERDRAWN -> new AccountOverdrawnException();
+            case NO_STOCK -> new NoStockException(entity.getBarcode(), entity.getKiosk());
+            case ACCOUNT_DAILY_LIMIT -> new AccountDailyLimitException();
+            case UNKNOWN_ERROR -> new UnknownErrorException(pageOutcome.dialogText());
+            case NO_ANSWER -> new MensaMaxTimeoutException("checking out at kiosk '" + entity.getKiosk() + "'");
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import de.waldorfaugsburg.mensamax.server.configuration.CacheConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxChipEntity;
+import de.waldorfaugsburg.mensamax.server.exception.InvalidChipException;
+import de.waldorfaugsburg.mensamax.server.repository.ChipRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.stereotype.Service;
+
+import java.time.Instant;
+import java.util.Optional;
+
+@Service
+@Slf4j
+public class ChipIndexService {
+
+    private final Cache<@NotNull String, @NotNull MensaMaxChipEntity> chipCache;
+    private final SingleFlight<String, MensaMaxChipEntity> chipLookupFlight;
+
+    private final CacheConfigurationProperties properties;
+    private final MensaMaxService mensaMaxService;
+    private final ChipRepository repository;
+
+    public ChipIndexService(final CacheConfigurationProperties properties, final MensaMaxService mensaMaxService,
+                            final ChipRepository repository, final MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.mensaMaxService = mensaMaxService;
+        this.repository = repository;
+        this.chipCache = CacheBuilder.newBuilder().maximumSize(properties.chipCacheSize()).recordStats().build();
+        this.chipLookupFlight = new SingleFlight<>("chip", meterRegistry);
+        GuavaCacheMetrics.monitor(meterRegistry, chipCache, "chips");
+    }
+
+    public String findUsernameByChip(final String chip) throws InvalidChipException {
+        Preconditions.checkNotNull(chip, "chip may not be null");
+
+        final MensaMaxChipEntity entity = findIndexedChip(chip).orElse(null);
+        if (entity != null && !isOutdated(entity)) {
+            return entity.getUsername();
+        }
+
+        try {
+            // Kiosks scanning the same unknown chip at once share a single lookup
+            return chipLookupFlight.execute(chip, () -> resolveChip(chip)).getUsername();
+        } catch (final RuntimeException e) {
+            // Only MensaMax definitely answering that nobody owns the chip drops the old mapping
+            if (e instanceof InvalidChipException && e.getCause() == null) {
+                if (entity != null) {
+                    invalidateChip(chip);
+                }
+                throw e;
+            }
+            if (entity == null) {
+                throw e;
+            }
+
+            // Better charge the last known owner than losing the sale because MensaMax is unreachable
+            log.warn("Revalidation of chip '{}' failed, using last known username '{}'", chip, entity.getUsername(), e);
+            return entity.getUsername();
+        }
+    }
+
+    public Optional<String> findCachedUsernameByChip(final String chip) {
+        return findIndexedChip(chip).filter(entity -> !isOutdated(entity)).map(MensaMaxChipEntity::getUsername);
+    }
+
+    public CacheStatistics getCacheStatistics() {
+        return CacheStatistics.of("chips", chipCache);
+    }
+
+    public void invalidateChip(final String chip) {
+        chipCache.invalidate(chip);
+        repository.deleteById(chip);
+        log.info("Removed chip '{}' from index", chip);
+    }
+
+    private Optional<MensaMaxChipEntity> findIndexedChip(final String chip) {
+        final MensaMaxChipEntity cachedEntity = chipCache.getIfPresent(chip);
+        if (cachedEntity != null) {
+            return Optional.of(cachedEntity);
+        }
+
+        final Optional<MensaMaxChipEntity> storedEntity = repository.findById(chip);
+        storedEntity.ifPresent(entity -> chipCache.put(chip, entity));
+        return storedEntity;
+    }
+
+    private MensaMaxChipEntity resolveChip(final String chip) throws InvalidChipException {
+        final String username = mensaMaxService.findUsernameByChip(chip);
+
+        // Write through to make the mapping survive restarts
+        final MensaMaxChipEntity entity = repository.save(new MensaMaxChipEntity(chip, username, Instant.now()));
+        chipCache.put(chip, entity);
+        return entity;
+    }
+
+    private boolean isOutdated(final MensaMaxChipEntity entity) {
+        return entity.getResolvedAt().plus(properties.chipRevalidationAge()).isBefore(Instant.now());
+    }
+}
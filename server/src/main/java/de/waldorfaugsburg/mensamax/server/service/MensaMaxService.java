@@ -1,14 +1,29 @@
 package de.waldorfaugsburg.mensamax.server.service;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.configuration.CacheConfigurationProperties;
 import de.waldorfaugsburg.mensamax.server.configuration.MensaMaxConfigurationProperties;
 import de.waldorfaugsburg.mensamax.server.exception.*;
+import de.waldorfaugsburg.mensamax.server.lookup.HttpUserLookupEngine;
+import de.waldorfaugsburg.mensamax.server.lookup.PersonListEntry;
+import de.waldorfaugsburg.mensamax.server.lookup.SeleniumUserLookupEngine;
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngine;
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngineType;
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
 import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
 import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClientStack;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import jakarta.annotation.PreDestroy;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.jetbrains.annotations.NotNull;
@@ -19,54 +34,115 @@ import org.openqa.selenium.support.ui.WebDriverWait;
 import org.springframework.stereotype.Service;
 
 import java.time.Duration;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 
 @Service
 @Slf4j
 public class MensaMaxService {
 
-    public static final String URL = "https://mensastadt.de";
-    private static final String LOGIN_URL = URL + "/?projekt=%s&einrichtung=%s&user=%s";
-    private static final String INDEX_URL = URL + "/mensamax/index.aspx";
-    private static final String PERSON_SEARCH_URL = URL + "/mensamax/Formulare/Person/PersonSucheForm.aspx";
-    private static final String PERSON_DATA_URL = URL + "/mensamax/Formulare/Person/PersonDatenForm.aspx";
-    private static final String PERSON_ROLE_URL = URL + "/mensamax/Formulare/Person/PersonRolleForm.aspx";
-    private static final String PERSON_EMAIL_URL = URL + "/mensamax/Formulare/Person/PersonEMailForm.aspx";
-    private static final String PERSON_CREATE_URL = URL + "/mensamax/Formulare/Person/PersonDatenForm.aspx?PersonID=0";
-
-    private final LoadingCache<@NotNull String, @NotNull MensaMaxUser> userUsernameCache = CacheBuilder.newBuilder().expireAfterWrite(8, TimeUnit.HOURS).build(new CacheLoader<>() {
-        @Override
-        public @NotNull MensaMaxUser load(@NotNull final String chip) throws InvalidChipException {
-            final MensaMaxUser response = findUserByUsername(chip);
-
-            // Update other cache
-            userEmployeeIdCache.put(response.getEmployeeId(), response);
-            return response;
-        }
-    });
-
-    private final LoadingCache<@NotNull Integer, @NotNull MensaMaxUser> userEmployeeIdCache = CacheBuilder.newBuilder().expireAfterWrite(8, TimeUnit.HOURS).build(new CacheLoader<>() {
-        @Override
-        public @NotNull MensaMaxUser load(@NotNull final Integer employeeId) throws InvalidChipException {
-            final MensaMaxUser response = findUserByEmployeeId(employeeId);
-
-            // Update other cache
-            userUsernameCache.put(response.getUsername(), response);
-            return response;
-        }
-    });
+    private static final String LOGIN_PATH = "/?projekt=%s&einrichtung=%s&user=%s";
+    private static final String INDEX_PATH = "/mensamax/index.aspx";
+    public static final String PERSON_SEARCH_PATH = "/mensamax/Formulare/Person/PersonSucheForm.aspx";
+    public static final String PERSON_DATA_PATH = "/mensamax/Formulare/Person/PersonDatenForm.aspx";
+    public static final String PERSON_BY_ID_PATH = "/mensamax/Formulare/Person/PersonDatenForm.aspx?PersonID=%d";
+    public static final String PERSON_ROLE_PATH = "/mensamax/Formulare/Person/PersonRolleForm.aspx";
+    public static final String PERSON_EMAIL_PATH = "/mensamax/Formulare/Person/PersonEMailForm.aspx";
+    public static final String PERSON_CREATE_PATH = "/mensamax/Formulare/Person/PersonDatenForm.aspx?PersonID=0";
+    public static final String PERSON_SEARCH_EMPTY_ID = "lblKeineTreffer";
+    public static final String PERSON_SEARCH_RESULTS_ID = "gvPersonen";
+    public static final String PERSON_LINK_SELECTOR = "a[href*=PersonID=]";
+    private static final String USERNAME_FIELD_NAME = "tbloginname";
+    private static final String EMPLOYEE_ID_FIELD_NAME = "tbxPersonalnummer";
 
     private final MensaMaxConfigurationProperties properties;
     private final SeleniumService seleniumService;
     @Getter
     private final SeleniumClientStack clientStack;
-
-    public MensaMaxService(final MensaMaxConfigurationProperties properties, final SeleniumService seleniumService) {
+    private final UserDirectoryService userDirectoryService;
+    private final MeterRegistry meterRegistry;
+    private final UserLookupEngine seleniumLookupEngine;
+    private final HttpUserLookupEngine httpLookupEngine;
+    private final SingleFlight<String, MensaMaxUser> userLookupFlight;
+    private final ExecutorService cacheReloadExecutor;
+    private final LoadingCache<@NotNull String, @NotNull MensaMaxUser> userUsernameCache;
+    private final LoadingCache<@NotNull Integer, @NotNull MensaMaxUser> userEmployeeIdCache;
+    private final Cache<@NotNull String, @NotNull Boolean> unknownFieldCache;
+    private final Cache<@NotNull String, @NotNull Boolean> unknownChipCache;
+
+    public MensaMaxService(final MensaMaxConfigurationProperties properties, final CacheConfigurationProperties cacheProperties,
+                           final SeleniumService seleniumService, final UserDirectoryService userDirectoryService, final MeterRegistry meterRegistry) {
         this.properties = properties;
         this.seleniumService = seleniumService;
-        this.clientStack = seleniumService.reserveClients(properties.clientCount(), this::login);
+        this.userDirectoryService = userDirectoryService;
+        this.meterRegistry = meterRegistry;
+        this.clientStack = seleniumService.reserveClients(properties.clientCount(), properties.effectiveMaxClientCount(), this::login);
+        this.seleniumLookupEngine = new SeleniumUserLookupEngine(this, seleniumService);
+        this.httpLookupEngine = new HttpUserLookupEngine(this);
+        this.userLookupFlight = new SingleFlight<>("user", meterRegistry);
+
+        // Leave at least one client for sales and first-time lookups while entries are refreshed in the background
+        this.cacheReloadExecutor = Executors.newFixedThreadPool(Math.max(1, properties.effectiveMaxClientCount() - 1),
+                new ThreadFactoryBuilder().setNameFormat("user-cache-reload-%d").setDaemon(true).build());
+
+        this.userUsernameCache = buildUserCache(cacheProperties, new CacheLoader<>() {
+            @Override
+            public @NotNull MensaMaxUser load(@NotNull final String username) throws InvalidFieldException {
+                final MensaMaxUser response = userDirectoryService.findUserByUsername(username).orElseGet(() -> requestUser(findUserByUsername(username)));
+
+                // Update other cache
+                userEmployeeIdCache.put(response.getEmployeeId(), response);
+                return response;
+            }
+
+            @Override
+            public @NotNull ListenableFuture<MensaMaxUser> reload(@NotNull final String username, @NotNull final MensaMaxUser oldUser) throws InvalidFieldException {
+                // Callers already got the old user, so reloads must not take clients from lookups somebody waits for
+                final MensaMaxUser response = requestUser(findUserByInputField(ClientPriority.BACKGROUND, USERNAME_FIELD_NAME, username));
+                userEmployeeIdCache.put(response.getEmployeeId(), response);
+                return Futures.immediateFuture(response);
+            }
+        });
+        this.userEmployeeIdCache = buildUserCache(cacheProperties, new CacheLoader<>() {
+            @Override
+            public @NotNull MensaMaxUser load(@NotNull final Integer employeeId) throws InvalidFieldException {
+                final MensaMaxUser response = userDirectoryService.findUserByEmployeeId(employeeId).orElseGet(() -> requestUser(findUserByEmployeeId(employeeId)));
+
+                // Update other cache
+                userUsernameCache.put(response.getUsername(), response);
+                return response;
+            }
+
+            @Override
+            public @NotNull ListenableFuture<MensaMaxUser> reload(@NotNull final Integer employeeId, @NotNull final MensaMaxUser oldUser) throws InvalidFieldException {
+                final MensaMaxUser response = requestUser(findUserByInputField(ClientPriority.BACKGROUND, EMPLOYEE_ID_FIELD_NAME, Integer.toString(employeeId)));
+                userUsernameCache.put(response.getUsername(), response);
+                return Futures.immediateFuture(response);
+            }
+        });
+
+        // Remembers lookups MensaMax definitely answered with "nobody", so repeated scans fail fast
+        this.unknownFieldCache = CacheBuilder.newBuilder().maximumSize(cacheProperties.negativeCacheSize())
+                .expireAfterWrite(cacheProperties.negativeCacheAge()).recordStats().build();
+        this.unknownChipCache = CacheBuilder.newBuilder().maximumSize(cacheProperties.negativeCacheSize())
+                .expireAfterWrite(cacheProperties.negativeCacheAge()).recordStats().build();
+
+        GuavaCacheMetrics.monitor(meterRegistry, userUsernameCache, "users.username");
+        GuavaCacheMetrics.monitor(meterRegistry, userEmployeeIdCache, "users.employeeId");
+        GuavaCacheMetrics.monitor(meterRegistry, unknownFieldCache, "users.unknown");
+        GuavaCacheMetrics.monitor(meterRegistry, unknownChipCache, "chips.unknown");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        cacheReloadExecutor.shutdownNow();
+    }
+
+    public String url(final String path) {
+        return properties.url() + path;
     }
 
     public MensaMaxUser getUserByUsername(final String username) throws InvalidFieldException {
@@ -88,23 +164,47 @@ public class MensaMaxService {
     public String findUsernameByChip(final String chip) throws InvalidChipException {
         Preconditions.checkNotNull(chip, "chip may not be null");
 
-        final SeleniumClient client = clientStack.obtainClient();
+        if (unknownChipCache.getIfPresent(chip) != null) {
+            throw new InvalidChipException(chip);
+        }
+
+        return timeLookup("chip", "selenium", () -> requestUsernameByChip(chip));
+    }
+
+    private String requestUsernameByChip(final String chip) throws InvalidChipException {
+        final SeleniumClient client = clientStack.obtainClient(ClientPriority.INTERACTIVE);
         final WebDriver webDriver = client.getWebDriver();
         try {
             login(client);
-            webDriver.get(PERSON_SEARCH_URL);
+            webDriver.get(url(PERSON_SEARCH_PATH));
 
             seleniumService.click(webDriver, By.id("btnBarcodeSearch"));
             final WebElement barcodeElement = webDriver.switchTo().activeElement();
             barcodeElement.sendKeys(chip, Keys.ENTER);
 
-            seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(PERSON_DATA_URL));
+            // MensaMax either opens the person or renders the search page again if nobody owns the chip
+            seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlMatches(url(PERSON_DATA_PATH)),
+                    ExpectedConditions.stalenessOf(barcodeElement)));
+            if (!webDriver.getCurrentUrl().startsWith(url(PERSON_DATA_PATH)) && isNoMatchShown(webDriver)) {
+                log.error("Couldn't find username for invalid chip '{}'", chip);
+                unknownChipCache.put(chip, true);
+                throw new InvalidChipException(chip);
+            }
+            if (!webDriver.getCurrentUrl().startsWith(url(PERSON_DATA_PATH))) {
+                // Neither the person nor an empty result, so nothing is known about the chip yet
+                log.error("MensaMax didn't show whether anybody owns chip '{}'", chip);
+                throw new MensaMaxTimeoutException("looking up chip " + chip);
+            }
+
             final String username = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBenutzername")).getDomAttribute("value");
             log.info("Requested username '{}' by chip id '{}'", username, chip);
             return username;
+        } catch (final InvalidChipException | MensaMaxTimeoutException e) {
+            throw e;
         } catch (final TimeoutException e) {
-            log.error("Couldn't find username for invalid chip '{}'", chip);
-            throw new InvalidChipException(chip);
+            // A slow answer says nothing about the chip, so it must not end up in the negative cache
+            log.error("MensaMax didn't answer the lookup of chip '{}' in time", chip);
+            throw new MensaMaxTimeoutException("looking up chip " + chip, e);
         } catch (final Exception e) {
             log.error("An error occurred while requesting user by chip id {}", chip, e);
             throw new UnknownErrorException(e);
@@ -113,40 +213,119 @@ public class MensaMaxService {
         }
     }
 
+    /**
+     * Tells whether the person search definitely found nobody: the search page has settled and shows an empty result.
+     * A stale search input alone isn't enough, partial postbacks and closed popups replace it as well.
+     */
+    public boolean isNoMatchShown(final WebDriver webDriver) {
+        if (!seleniumService.waitForPageSettle(webDriver, "person-search") || !webDriver.getCurrentUrl().startsWith(url(PERSON_SEARCH_PATH))) {
+            return false;
+        }
+        if (!webDriver.findElements(By.id(PERSON_SEARCH_EMPTY_ID)).isEmpty()) {
+            return true;
+        }
+
+        final List<WebElement> resultElements = webDriver.findElements(By.id(PERSON_SEARCH_RESULTS_ID));
+        return !resultElements.isEmpty() && resultElements.getFirst().findElements(By.cssSelector(PERSON_LINK_SELECTOR)).isEmpty();
+    }
+
     public MensaMaxUser findUserByUsername(final String username) throws InvalidFieldException {
-        return findUserByInputField("tbloginname", username);
+        return findUserByInputField(USERNAME_FIELD_NAME, username);
     }
 
     public MensaMaxUser findUserByEmployeeId(final int employeeId) throws InvalidFieldException {
-        return findUserByInputField("tbxPersonalnummer", Integer.toString(employeeId));
+        return findUserByInputField(EMPLOYEE_ID_FIELD_NAME, Integer.toString(employeeId));
     }
 
     public MensaMaxUser findUserByInputField(final String inputFieldName, final String value) throws InvalidFieldException {
+        return findUserByInputField(ClientPriority.INTERACTIVE, inputFieldName, value);
+    }
+
+    public MensaMaxUser findUserByInputField(final ClientPriority priority, final String inputFieldName, final String value) throws InvalidFieldException {
+        Preconditions.checkNotNull(priority, "priority may not be null");
         Preconditions.checkNotNull(inputFieldName, "inputFieldName may not be null");
         Preconditions.checkNotNull(value, "value may not be null");
 
-        final SeleniumClient client = clientStack.obtainClient();
-        final WebDriver webDriver = client.getWebDriver();
+        final String key = inputFieldName + "=" + value;
+        if (unknownFieldCache.getIfPresent(key) != null) {
+            throw new InvalidFieldException(inputFieldName, value);
+        }
+
         try {
-            login(client);
-            webDriver.get(PERSON_SEARCH_URL);
+            // Interactive lookups must not end up waiting for a client at background priority
+            return userLookupFlight.execute(priority + ":" + key, () -> requestUserByInputField(priority, inputFieldName, value));
+        } catch (final InvalidFieldException e) {
+            // Only a plain "not found" is definitive, wrapped errors may go away on the next try
+            if (e.getCause() == null) {
+                unknownFieldCache.put(key, true);
+            }
+            throw e;
+        }
+    }
 
-            seleniumService.clearAndSendKeys(webDriver, By.id(inputFieldName), value, Keys.ENTER);
+    private MensaMaxUser requestUserByInputField(final ClientPriority priority, final String inputFieldName, final String value) throws InvalidFieldException {
+        final String lookup = switch (inputFieldName) {
+            case USERNAME_FIELD_NAME -> "username";
+            case EMPLOYEE_ID_FIELD_NAME -> "employee-id";
+            default -> "field";
+        };
 
-            log.info("Requested user by field '{}' with value '{}'", inputFieldName, value);
-            return readUserData(webDriver);
-        } catch (final Exception e) {
-            log.error("An error occurred while requesting user field '{}' with value '{}'", inputFieldName, value, e);
-            throw new InvalidFieldException(inputFieldName, value, e);
+        if (properties.lookupEngine() == UserLookupEngineType.HTTP) {
+            try {
+                return timeLookup(lookup, "http", () -> httpLookupEngine.findUserByInputField(priority, inputFieldName, value));
+            } catch (final InvalidFieldException | NoClientsAvailableException e) {
+                throw e;
+            } catch (final Exception e) {
+                log.warn("HTTP lookup of field '{}' with value '{}' failed, falling back to selenium", inputFieldName, value, e);
+            }
+        }
+        return timeLookup(lookup, "selenium", () -> seleniumLookupEngine.findUserByInputField(priority, inputFieldName, value));
+    }
+
+    public List<PersonListEntry> listPersons() {
+        // Only the directory sync walks through all persons, which nobody is waiting for
+        return timeLookup("person-list", "http", () -> httpLookupEngine.listPersons(ClientPriority.BACKGROUND));
+    }
+
+    public MensaMaxUser findUserByPersonId(final int personId) {
+        return timeLookup("person-id", "http", () -> httpLookupEngine.findUserByPersonId(ClientPriority.BACKGROUND, personId));
+    }
+
+    private <T> T timeLookup(final String lookup, final String engine, final Supplier<T> call) {
+        final long startTime = System.nanoTime();
+        String result = "error";
+        try {
+            final T value = call.get();
+            result = "success";
+            return value;
+        } catch (final InvalidFieldException | InvalidChipException e) {
+            result = "not-found";
+            throw e;
+        } catch (final MensaMaxTimeoutException e) {
+            result = "timeout";
+            throw e;
         } finally {
-            clientStack.returnClient(client);
+            Timer.builder("mensamax.lookup").tag("lookup", lookup).tag("engine", engine).tag("result", result)
+                    .publishPercentileHistogram().register(meterRegistry).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         }
     }
 
+    public List<CacheStatistics> getCacheStatistics() {
+        return List.of(CacheStatistics.of("users.username", userUsernameCache), CacheStatistics.of("users.employeeId", userEmployeeIdCache),
+                CacheStatistics.of("users.unknown", unknownFieldCache), CacheStatistics.of("chips.unknown", unknownChipCache));
+    }
+
+    public void invalidateUser(final MensaMaxUser user) {
+        userUsernameCache.invalidate(user.getUsername());
+        userEmployeeIdCache.invalidate(user.getEmployeeId());
+        unknownFieldCache.invalidate(USERNAME_FIELD_NAME + "=" + user.getUsername());
+        unknownFieldCache.invalidate(EMPLOYEE_ID_FIELD_NAME + "=" + user.getEmployeeId());
+    }
+
     public void createUser(final MensaMaxUser user) {
         Preconditions.checkNotNull(user, "user may not be null");
 
-        final SeleniumClient client = clientStack.obtainClient();
+        final SeleniumClient client = clientStack.obtainClient(ClientPriority.ADMIN);
         final WebDriver webDriver = client.getWebDriver();
         try {
             login(client);
@@ -157,14 +336,18 @@ public class MensaMaxService {
             } catch (final Exception ignored) {
             }
 
-            webDriver.get(PERSON_CREATE_URL);
+            webDriver.get(url(PERSON_CREATE_PATH));
             writeUserData(webDriver, user);
+            userDirectoryService.putUser(user);
 
             log.info("Created user '{}''", user.getUsername());
         } catch (final Exception e) {
             log.error("An error occurred while creating user '{}'", user.getUsername(), e);
             throw new UserCreationException(user.getUsername(), e);
         } finally {
+            // The new user may own any of the usernames, employee ids or chips we remembered as unknown
+            unknownFieldCache.invalidateAll();
+            unknownChipCache.invalidateAll();
             clientStack.returnClient(client);
         }
     }
@@ -174,6 +357,22 @@ public class MensaMaxService {
 
     }
 
+    private <K> LoadingCache<@NotNull K, @NotNull MensaMaxUser> buildUserCache(final CacheConfigurationProperties cacheProperties,
+                                                                             final CacheLoader<@NotNull K, @NotNull MensaMaxUser> loader) {
+        // Callers keep getting the old user while it's reloaded, the hard expiry only drops users nobody asked for in a while
+        return CacheBuilder.newBuilder()
+                .maximumSize(cacheProperties.userCacheSize())
+                .refreshAfterWrite(cacheProperties.userRefreshAge())
+                .expireAfterWrite(cacheProperties.userExpireAge())
+                .recordStats()
+                .build(CacheLoader.asyncReloading(loader, cacheReloadExecutor));
+    }
+
+    private MensaMaxUser requestUser(final MensaMaxUser user) {
+        userDirectoryService.putUser(user);
+        return user;
+    }
+
     public void login(final SeleniumClient client) throws LoginException {
         login(client, properties.username(), properties.password());
     }
@@ -184,14 +383,16 @@ public class MensaMaxService {
             return;
         }
 
+        final long startTime = System.nanoTime();
+        boolean loggedIn = false;
         final WebDriver webDriver = client.getWebDriver();
-        webDriver.get(INDEX_URL);
+        webDriver.get(url(INDEX_PATH));
 
         try {
             seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches("^((?!\bCustErrors.aspx\b).)*$"));
 
             // Opening login page
-            webDriver.get(String.format(LOGIN_URL, properties.projectId(), properties.facilityId(), properties.username()));
+            webDriver.get(url(String.format(LOGIN_PATH, properties.projectId(), properties.facilityId(), properties.username())));
 
             seleniumService.clearAndSendKeys(webDriver, By.id("tbxKennwort"), password);
 
@@ -199,9 +400,10 @@ public class MensaMaxService {
             seleniumService.click(webDriver, By.id("btnLogin"));
 
             // Wait till login is finished
-            seleniumService.waitUntil(webDriver, ExpectedConditions.urlToBe(INDEX_URL));
+            seleniumService.waitUntil(webDriver, ExpectedConditions.urlToBe(url(INDEX_PATH)));
 
             client.setLastActionDate(System.currentTimeMillis());
+            loggedIn = true;
             log.info("Client '{}' successfully logged in as '{}'", client.getInstanceId(), username);
 
         } catch (final TimeoutException e) {
@@ -211,12 +413,15 @@ public class MensaMaxService {
             } catch (TimeoutException ignored) {
             }
             throw new LoginException(e);
+        } finally {
+            Timer.builder("mensamax.login").tag("result", loggedIn ? "success" : "failure").register(meterRegistry)
+                    .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
         }
     }
 
     private void writeUserData(final WebDriver webDriver, final MensaMaxUser user) {
-        seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlContains(PERSON_DATA_URL),
-                ExpectedConditions.urlMatches(PERSON_CREATE_URL)));
+        seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlContains(url(PERSON_DATA_PATH)),
+                ExpectedConditions.urlMatches(url(PERSON_CREATE_PATH))));
 
         seleniumService.clearAndSendKeys(webDriver, By.id("tbxBenutzername"), user.getUsername());
         seleniumService.clearAndSendKeys(webDriver, By.id("tbxNachname"), user.getLastName());
@@ -236,20 +441,20 @@ public class MensaMaxService {
 
         seleniumService.waitUntil(webDriver, () -> new Select(seleniumService.waitUntilElementPresent(webDriver, By.id("cboKlasse")))
                 .getFirstSelectedOption().getText().equals(user.getUserGroup()));
-        seleniumService.waitForJavascript(webDriver, 2000, 20);
+        seleniumService.waitForPageSettle(webDriver, "person-save");
 
         // Copy person email to role
-        webDriver.get(PERSON_ROLE_URL);
-        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(PERSON_ROLE_URL));
+        webDriver.get(url(PERSON_ROLE_PATH));
+        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(url(PERSON_ROLE_PATH)));
 
         seleniumService.click(webDriver, By.id("btnVonPers"));
-        seleniumService.waitForJavascript(webDriver, 2000, 20);
+        seleniumService.waitForPageSettle(webDriver, "role-copy-email");
 
         seleniumService.click(webDriver, By.id("btnSave"));
-        seleniumService.waitForJavascript(webDriver, 2000, 20);
+        seleniumService.waitForPageSettle(webDriver, "role-save");
 
-        webDriver.get(PERSON_EMAIL_URL);
-        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(PERSON_EMAIL_URL));
+        webDriver.get(url(PERSON_EMAIL_PATH));
+        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(url(PERSON_EMAIL_PATH)));
 
         // Enter contact emails
         final String contactEmailsString = String.join(",", user.getContactEmails());
@@ -257,38 +462,6 @@ public class MensaMaxService {
         seleniumService.clearAndSendKeys(webDriver, By.id("tbxHinweisEMail"), contactEmailsString);
         seleniumService.clearAndSendKeys(webDriver, By.id("tbxMitteilungen"), contactEmailsString);
         seleniumService.click(webDriver, By.id("btnSpeichern"));
-        seleniumService.waitForJavascript(webDriver, 2000, 20);
-    }
-
-    private MensaMaxUser readUserData(final WebDriver webDriver) throws TimeoutException {
-        seleniumService.waitUntil(webDriver, ExpectedConditions.or(ExpectedConditions.urlContains(PERSON_DATA_URL),
-                ExpectedConditions.urlMatches(PERSON_CREATE_URL)));
-
-        final String username = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBenutzername")).getDomAttribute("value");
-        final String firstName = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxVorname")).getDomAttribute("value");
-        final String lastName = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxNachname")).getDomAttribute("value");
-        final String dateOfBirth = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxGebDatum")).getDomAttribute("value");
-        final String email = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxEmail")).getDomAttribute("value");
-        final String userGroup = new Select(seleniumService.waitUntilElementPresent(webDriver, By.id("cboKlasse"))).getFirstSelectedOption().getText();
-        int employeeId = 0;
-        try {
-            final String employeeIdString = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxPersNr")).getDomAttribute("value");
-            if (employeeIdString != null && !employeeIdString.isEmpty()) {
-                employeeId = Integer.parseInt(employeeIdString);
-            }
-        } catch (final NumberFormatException e) {
-            log.warn("Invalid employeeId for user '{}'", username);
-        }
-
-        webDriver.get(PERSON_EMAIL_URL);
-        seleniumService.waitUntil(webDriver, ExpectedConditions.urlMatches(PERSON_EMAIL_URL));
-
-        final List<String> contactEmails = new ArrayList<>();
-        final String contactEmailsString = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxLastschriftEMail")).getText();
-        if (!contactEmailsString.isEmpty()) {
-            contactEmails.addAll(List.of(contactEmailsString.split(",")));
-        }
-
-        return new MensaMaxUser(username, firstName, lastName, email, contactEmails, dateOfBirth, userGroup, employeeId);
+        seleniumService.waitForPageSettle(webDriver, "email-save");
     }
 }
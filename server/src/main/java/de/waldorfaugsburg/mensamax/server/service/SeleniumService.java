@@ -1,8 +1,13 @@
 package de.waldorfaugsburg.mensamax.server.service;
 
 import de.waldorfaugsburg.mensamax.server.configuration.SeleniumConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.selenium.PageOutcome;
 import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
 import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClientStack;
+import de.waldorfaugsburg.mensamax.server.selenium.WaitProfiles;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.Nullable;
 import jakarta.annotation.PreDestroy;
 import lombok.extern.slf4j.Slf4j;
 import org.openqa.selenium.*;
@@ -10,6 +15,7 @@ import org.openqa.selenium.firefox.FirefoxDriver;
 import org.openqa.selenium.firefox.FirefoxOptions;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.WebDriverWait;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
 import java.io.File;
@@ -18,9 +24,13 @@ import java.nio.file.Files;
 import java.time.Duration;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -29,17 +39,131 @@ import java.util.function.Supplier;
 @Slf4j
 public class SeleniumService {
 
-    private final Set<SeleniumClientStack> stacks = new HashSet<>();
+    private static final String DEFAULT_WAIT_STEP = "default";
+    private static final long SETTLE_QUIET_MILLIS = 100;
+    private static final long SETTLE_MAX_WAIT_MILLIS = 2000;
+    // The document is still loading, an ASP.NET postback is running or jQuery is waiting for a response
+    private static final String PAGE_BUSY_FUNCTION = """
+            const isBusy = () => {
+                if (document.readyState !== 'complete') {
+                    return true;
+                }
+                try {
+                    const manager = window.Sys && Sys.WebForms && Sys.WebForms.PageRequestManager && Sys.WebForms.PageRequestManager.getInstance();
+                    if (manager && manager.get_isInAsyncPostBack()) {
+                        return true;
+                    }
+                } catch (e) {
+                }
+                return !!(window.jQuery && window.jQuery.active > 0);
+            };
+            """;
+    // Resolves as soon as the document is loaded, no ASP.NET postback is running and the DOM hasn't changed for a while
+    private static final String PAGE_SETTLE_SCRIPT = PAGE_BUSY_FUNCTION + """
+            const quietMillis = arguments[0];
+            const maxWaitMillis = arguments[1];
+            const done = arguments[arguments.length - 1];
+            const startTime = Date.now();
+            let lastMutationTime = startTime;
+            const observer = new MutationObserver(() => lastMutationTime = Date.now());
+            observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});
+            const check = () => {
+                const now = Date.now();
+                if (!isBusy() && now - lastMutationTime >= quietMillis) {
+                    observer.disconnect();
+                    done(true);
+                } else if (now - startTime >= maxWaitMillis) {
+                    observer.disconnect();
+                    done(false);
+                } else {
+                    setTimeout(check, 10);
+                }
+            };
+            check();
+            """;
+
+    // Marks the document an action is taken on, which either gets replaced by the answer or finishes a postback
+    private static final String MARK_PAGE_SCRIPT = """
+            window.__mmOutcomeToken = arguments[0];
+            window.__mmPostbackDone = false;
+            try {
+                const manager = window.Sys && Sys.WebForms && Sys.WebForms.PageRequestManager && Sys.WebForms.PageRequestManager.getInstance();
+                if (manager) {
+                    const handler = () => {
+                        window.__mmPostbackDone = true;
+                        manager.remove_endRequest(handler);
+                    };
+                    manager.add_endRequest(handler);
+                }
+            } catch (e) {
+            }
+            """;
+    // Resolves with the first outcome that shows up: the text of a notice dialog, or the page settling without one. The
+    // marked document is complete and quiet before the server has even answered, so it only counts once its postback is done
+    private static final String PAGE_OUTCOME_SCRIPT = PAGE_BUSY_FUNCTION + """
+            const quietMillis = arguments[0];
+            const maxWaitMillis = arguments[1];
+            const token = arguments[2];
+            const done = arguments[arguments.length - 1];
+            const isAnswered = () => window.__mmOutcomeToken !== token || window.__mmPostbackDone === true;
+            const startTime = Date.now();
+            let lastMutationTime = startTime;
+            const observer = new MutationObserver(() => lastMutationTime = Date.now());
+            observer.observe(document, {childList: true, subtree: true, attributes: true, characterData: true});
+            const readDialog = () => {
+                const frame = document.querySelector('.iFrameHinweis');
+                if (!frame) {
+                    return {loading: false, text: null};
+                }
+                try {
+                    const frameDocument = frame.contentDocument;
+                    if (!frameDocument || frameDocument.readyState !== 'complete') {
+                        return {loading: true, text: null};
+                    }
+                    const element = frameDocument.querySelector('.hinweis-dialog-content') || frameDocument.querySelector('.TerminalHinweis');
+                    const text = element ? element.textContent.trim() : '';
+                    return {loading: false, text: text.length > 0 ? text : null};
+                } catch (e) {
+                    return {loading: false, text: null};
+                }
+            };
+            const finish = (type, text) => {
+                observer.disconnect();
+                done({type: type, text: text, url: location.href});
+            };
+            const check = () => {
+                const now = Date.now();
+                const dialog = readDialog();
+                if (dialog.text !== null) {
+                    finish('DIALOG', dialog.text);
+                } else if (!dialog.loading && !isBusy() && isAnswered() && now - lastMutationTime >= quietMillis) {
+                    finish('SETTLED', null);
+                } else if (now - startTime >= maxWaitMillis) {
+                    finish('TIMEOUT', null);
+                } else {
+                    setTimeout(check, 10);
+                }
+            };
+            check();
+            """;
+
+    private final Set<SeleniumClientStack> stacks = ConcurrentHashMap.newKeySet();
     private final SeleniumConfigurationProperties properties;
-    private int instanceId;
+    private final MeterRegistry meterRegistry;
+    // Ids of running clients, which also name their profile directories
+    private final Set<Integer> usedInstanceIds = new HashSet<>();
+    private final AtomicLong pageMarkerSequence = new AtomicLong();
+    private final WaitProfiles waitProfiles;
 
-    public SeleniumService(final SeleniumConfigurationProperties properties) {
+    public SeleniumService(final SeleniumConfigurationProperties properties, final MeterRegistry meterRegistry) {
         System.setProperty("webdriver.gecko.driver", properties.driverPath());
         this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.waitProfiles = new WaitProfiles(properties.waitTimeout(), properties.waitTimeouts());
     }
 
     @PreDestroy
-    public void shutdown() throws IOException {
+    public void shutdown() {
         for (final SeleniumClientStack stack : stacks) {
             stack.close();
         }
@@ -59,11 +183,11 @@ public class SeleniumService {
     }
 
     public WebElement waitUntilElementPresent(final WebDriver webDriver, final By locator) throws TimeoutException {
-        return waitUntil(webDriver, ExpectedConditions.refreshed(ExpectedConditions.presenceOfElementLocated(locator)));
+        return waitUntil(webDriver, DEFAULT_WAIT_STEP, ExpectedConditions.refreshed(ExpectedConditions.presenceOfElementLocated(locator)));
     }
 
     public List<WebElement> waitUntilElementsPresent(final WebDriver webDriver, final By locator) throws TimeoutException {
-        return waitUntil(webDriver, ExpectedConditions.refreshed(ExpectedConditions.presenceOfAllElementsLocatedBy(locator)));
+        return waitUntil(webDriver, DEFAULT_WAIT_STEP, ExpectedConditions.refreshed(ExpectedConditions.presenceOfAllElementsLocatedBy(locator)));
     }
 
     public void waitUntil(final WebDriver webDriver, final Supplier<Boolean> condition) throws TimeoutException {
@@ -71,52 +195,178 @@ public class SeleniumService {
     }
 
     public <T> T waitUntil(final WebDriver webDriver, final Function<? super WebDriver, T> condition) throws TimeoutException {
-        final WebDriverWait wait = new WebDriverWait(webDriver, Duration.ofSeconds(3));
-        return wait.until(condition);
+        return waitUntil(webDriver, DEFAULT_WAIT_STEP, condition);
+    }
+
+    public <T> T waitUntil(final WebDriver webDriver, final String step, final Function<? super WebDriver, T> condition) throws TimeoutException {
+        return waitUntil(webDriver, step, waitProfiles.getTimeout(step), condition);
     }
 
-    public void waitForJavascript(final WebDriver webDriver, final int maxWaitMillis, int pollDelimiter) {
-        double startTime = System.currentTimeMillis();
-        while (System.currentTimeMillis() < startTime + maxWaitMillis) {
-            String prevState = webDriver.getPageSource();
+    private <T> T waitUntil(final WebDriver webDriver, final String step, final Duration timeout, final Function<? super WebDriver, T> condition) throws TimeoutException {
+        final long startTime = System.nanoTime();
+        try {
+            final T result = new WebDriverWait(webDriver, timeout, properties.waitPollInterval()).until(condition);
+            final long duration = System.nanoTime() - startTime;
+            Timer.builder("selenium.wait").tag("step", step).tag("result", "success").register(meterRegistry).record(duration, TimeUnit.NANOSECONDS);
+            return result;
+        } catch (final TimeoutException e) {
+            Timer.builder("selenium.wait").tag("step", step).tag("result", "timeout").register(meterRegistry).record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+            throw e;
+        }
+    }
+
+    public boolean waitForPageSettle(final WebDriver webDriver, final String step) {
+        final long startTime = System.nanoTime();
+        final long deadline = System.currentTimeMillis() + SETTLE_MAX_WAIT_MILLIS;
+        boolean settled = false;
+        while (!settled && System.currentTimeMillis() < deadline) {
             try {
-                Thread.sleep(pollDelimiter); // <-- would need to wrap in a try catch
-            } catch (InterruptedException e) {
-                throw new RuntimeException(e);
-            }
-            if (prevState.equals(webDriver.getPageSource())) {
-                return;
+                final long remainingMillis = Math.max(0, deadline - System.currentTimeMillis());
+                settled = Boolean.TRUE.equals(((JavascriptExecutor) webDriver).executeAsyncScript(PAGE_SETTLE_SCRIPT, SETTLE_QUIET_MILLIS, remainingMillis));
+            } catch (final JavascriptException | ScriptTimeoutException e) {
+                // Page has been unloaded while observing it, start over on the new document
+                log.debug("Page changed while waiting for it to settle ({})", step);
             }
         }
+
+        final long duration = System.nanoTime() - startTime;
+        Timer.builder("selenium.page.settle").tag("step", step).tag("result", settled ? "settled" : "timeout").register(meterRegistry).record(duration, TimeUnit.NANOSECONDS);
+        log.debug("Waited {}ms for page to settle ({})", TimeUnit.NANOSECONDS.toMillis(duration), step);
+        return settled;
     }
 
-    public SeleniumClientStack reserveClients(final int amount, final Consumer<SeleniumClient> initialize) {
-        final BlockingQueue<SeleniumClient> clients = new LinkedBlockingQueue<>(amount);
+    /**
+     * Marks the current document right before an action, so {@link #detectPageOutcome} can tell it apart from the answer.
+     *
+     * @return the marker to pass to {@link #detectPageOutcome}
+     */
+    public String markPage(final WebDriver webDriver) {
+        final String marker = Long.toString(pageMarkerSequence.incrementAndGet());
+        ((JavascriptExecutor) webDriver).executeScript(MARK_PAGE_SCRIPT, marker);
+        return marker;
+    }
 
-        for (int i = 0; i < amount; i++) {
-            final SeleniumClient client = new SeleniumClient(instanceId, createDriverInstance());
-            initialize.accept(client);
-            clients.add(client);
+    /**
+     * Waits for whatever an action led to in a single pass instead of probing for every possible dialog one by one.
+     *
+     * @param marker the marker of the page the action was taken on, or null if nothing was marked
+     */
+    public PageOutcome detectPageOutcome(final WebDriver webDriver, final String step, @Nullable final String marker) {
+        final long startTime = System.nanoTime();
+        final long deadline = System.currentTimeMillis() + waitProfiles.getTimeout(step).toMillis();
+        final String initialUrl = webDriver.getCurrentUrl();
+        PageOutcome outcome = null;
+        while (outcome == null && System.currentTimeMillis() < deadline) {
+            try {
+                final long remainingMillis = Math.max(0, deadline - System.currentTimeMillis());
+                final Map<?, ?> result = (Map<?, ?>) ((JavascriptExecutor) webDriver).executeAsyncScript(PAGE_OUTCOME_SCRIPT, SETTLE_QUIET_MILLIS, remainingMillis, marker);
+                PageOutcome.Type type = PageOutcome.Type.valueOf((String) result.get("type"));
+                if (type == PageOutcome.Type.SETTLED && !Objects.equals(initialUrl, result.get("url"))) {
+                    type = PageOutcome.Type.NAVIGATED;
+                }
+                outcome = new PageOutcome(type, (String) result.get("text"));
+            } catch (final JavascriptException | ScriptTimeoutException e) {
+                // Page has been unloaded while observing it, start over on the new document
+                log.debug("Page changed while detecting outcome ({})", step);
+            }
+        }
+        if (outcome == null) {
+            outcome = new PageOutcome(PageOutcome.Type.TIMEOUT, null);
         }
 
-        final SeleniumClientStack stack = new SeleniumClientStack(clients);
+        final long duration = System.nanoTime() - startTime;
+        Timer.builder("selenium.page.outcome").tag("step", step).tag("result", outcome.type().name().toLowerCase(Locale.ROOT)).register(meterRegistry).record(duration, TimeUnit.NANOSECONDS);
+        log.debug("Detected {} after {}ms ({})", outcome.type(), TimeUnit.NANOSECONDS.toMillis(duration), step);
+        return outcome;
+    }
+
+    public SeleniumClientStack reserveClients(final int minAmount, final int maxAmount, final Consumer<SeleniumClient> initialize) {
+        final SeleniumClientStack stack = new SeleniumClientStack(() -> createClient(initialize), minAmount, maxAmount, properties.idleTimeout(),
+                properties.obtainTimeouts(), meterRegistry);
         stacks.add(stack);
         return stack;
     }
 
-    private FirefoxDriver createDriverInstance() {
+    @Scheduled(fixedDelayString = "${selenium.health-check-interval:30s}", initialDelayString = "${selenium.health-check-interval:30s}")
+    public void checkClientHealth() {
+        for (final SeleniumClientStack stack : stacks) {
+            stack.checkHealth();
+        }
+    }
+
+    private SeleniumClient createClient(final Consumer<SeleniumClient> initialize) {
+        final int clientInstanceId = acquireInstanceId();
+
+        final long profileStartTime = System.nanoTime();
+        final SeleniumClient client;
+        final long profileDuration;
+        final long driverDuration;
+        try {
+            final File userDir = createProfileDirectory(clientInstanceId);
+            profileDuration = recordStartupStep("profile", profileStartTime);
+
+            final long driverStartTime = System.nanoTime();
+            client = new SeleniumClient(clientInstanceId, createDriverInstance(userDir), () -> releaseInstanceId(clientInstanceId));
+            driverDuration = recordStartupStep("driver", driverStartTime);
+        } catch (final RuntimeException e) {
+            releaseInstanceId(clientInstanceId);
+            throw e;
+        }
+
+        final long initializeStartTime = System.nanoTime();
+        try {
+            initialize.accept(client);
+        } catch (final RuntimeException e) {
+            client.close();
+            throw e;
+        }
+        final long initializeDuration = recordStartupStep("initialize", initializeStartTime);
+
+        log.info("Client '{}' started in {}ms (profile: {}ms, driver: {}ms, initialize: {}ms)", clientInstanceId,
+                TimeUnit.NANOSECONDS.toMillis(profileDuration + driverDuration + initializeDuration), TimeUnit.NANOSECONDS.toMillis(profileDuration),
+                TimeUnit.NANOSECONDS.toMillis(driverDuration), TimeUnit.NANOSECONDS.toMillis(initializeDuration));
+        return client;
+    }
+
+    private int acquireInstanceId() {
+        // Replacements take over the id and profile directory of a closed client, so the profiles on disk never
+        // outnumber the clients running at once
+        synchronized (usedInstanceIds) {
+            int id = 0;
+            while (!usedInstanceIds.add(id)) {
+                id++;
+            }
+            return id;
+        }
+    }
+
+    private void releaseInstanceId(final int id) {
+        synchronized (usedInstanceIds) {
+            usedInstanceIds.remove(id);
+        }
+    }
+
+    private long recordStartupStep(final String step, final long startTime) {
+        final long duration = System.nanoTime() - startTime;
+        Timer.builder("selenium.clients.startup").tag("step", step).register(meterRegistry).record(duration, TimeUnit.NANOSECONDS);
+        return duration;
+    }
+
+    private File createProfileDirectory(final int instanceId) {
         final File userDir = new File(properties.profilePath() + instanceId);
         try {
             Files.createDirectories(userDir.toPath());
         } catch (final IOException e) {
             throw new RuntimeException(e);
         }
+        return userDir;
+    }
 
+    private FirefoxDriver createDriverInstance(final File userDir) {
         final FirefoxOptions options = new FirefoxOptions();
         options.addArguments("-profile", userDir.getAbsolutePath());
         options.addArguments("--headless");
 
-        instanceId++;
         final FirefoxDriver firefoxDriver = new FirefoxDriver(options);
         firefoxDriver.manage().timeouts().pageLoadTimeout(Duration.ofSeconds(5));
         return firefoxDriver;
@@ -0,0 +1,58 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller executes the call, everybody arriving while it is
+ * still running receives the same result or exception instead of starting another one.
+ */
+final class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlightCalls = new ConcurrentHashMap<>();
+    private final Counter coalescedCounter;
+
+    SingleFlight(final String lookup, final MeterRegistry meterRegistry) {
+        this.coalescedCounter = Counter.builder("mensamax.lookups.coalesced").tag("lookup", lookup).register(meterRegistry);
+    }
+
+    V execute(final K key, final Supplier<V> call) {
+        final CompletableFuture<V> future = new CompletableFuture<>();
+        final CompletableFuture<V> inFlightCall = inFlightCalls.putIfAbsent(key, future);
+        if (inFlightCall != null) {
+            coalescedCounter.increment();
+            return await(inFlightCall);
+        }
+
+        try {
+            final V value = call.get();
+            future.complete(value);
+            return value;
+        } catch (final RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightCalls.remove(key, future);
+        }
+    }
+
+    private V await(final CompletableFuture<V> future) {
+        try {
+            return future.join();
+        } catch (final CompletionException e) {
+            if (e.getCause() instanceof final RuntimeException cause) {
+                throw cause;
+            }
+            if (e.getCause() instanceof final Error cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+}
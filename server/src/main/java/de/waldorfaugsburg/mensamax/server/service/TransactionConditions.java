@@ -0,0 +1,49 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL counterpart of {@link de.waldorfaugsburg.mensamax.server.repository.TransactionSpecifications} for services
+ * reading transactions with plain JDBC.
+ */
+final class TransactionConditions {
+
+    private TransactionConditions() {
+    }
+
+    static void append(final TransactionFilter filter, final StringBuilder sql, final List<Object> parameters, final String... extraConditions) {
+        final List<String> conditions = new ArrayList<>(List.of(extraConditions));
+        if (filter.getStatus() != null) {
+            // Status is stored by its ordinal
+            conditions.add("status = ?");
+            parameters.add(filter.getStatus().ordinal());
+        }
+        if (filter.getRecordedFrom() != null) {
+            conditions.add("recorded_at >= ?");
+            parameters.add(Timestamp.from(filter.getRecordedFrom().toInstant()));
+        }
+        if (filter.getRecordedTo() != null) {
+            conditions.add("recorded_at < ?");
+            parameters.add(Timestamp.from(filter.getRecordedTo().toInstant()));
+        }
+        if (filter.getKiosk() != null) {
+            conditions.add("kiosk = ?");
+            parameters.add(filter.getKiosk());
+        }
+        if (filter.getUsername() != null) {
+            conditions.add("username = ?");
+            parameters.add(filter.getUsername());
+        }
+        if (filter.getBarcode() != null) {
+            conditions.add("barcode = ?");
+            parameters.add(filter.getBarcode());
+        }
+        if (!conditions.isEmpty()) {
+            sql.append(" WHERE ").append(String.join(" AND ", conditions));
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import lombok.Getter;
+
+@Getter
+public enum TransactionExportFormat {
+
+    NDJSON("application/x-ndjson"),
+    CSV("text/csv");
+
+    private final String contentType;
+
+    TransactionExportFormat(final String contentType) {
+        this.contentType = contentType;
+    }
+}
@@ -0,0 +1,112 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import com.google.gson.Gson;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+
+import javax.sql.DataSource;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Writes transactions straight from a database cursor, so exports take the same amount of memory no matter how many
+ * transactions there are. Drivers like PostgreSQL only honour the fetch size within a transaction, MySQL additionally
+ * needs {@code useCursorFetch=true} in the JDBC URL.
+ */
+@Service
+@Slf4j
+public class TransactionExportService {
+
+    private static final Gson GSON = new Gson();
+    private static final int FETCH_SIZE = 500;
+    private static final String SELECT_SQL = "SELECT id, username, chip, kiosk, barcode, quantity, status, recorded_at, performed_at, error FROM mensa_max_transaction_entity";
+    private static final String CSV_HEADER = "id,username,chip,kiosk,barcode,quantity,status,recordedAt,performedAt,error";
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public TransactionExportService(final DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    @Transactional(readOnly = true)
+    public void exportTransactions(final TransactionFilter filter, final TransactionExportFormat format, final OutputStream outputStream) throws IOException {
+        final StringBuilder sql = new StringBuilder(SELECT_SQL);
+        final List<Object> parameters = new ArrayList<>();
+        TransactionConditions.append(filter, sql, parameters);
+        sql.append(" ORDER BY id");
+
+        final long startTime = System.currentTimeMillis();
+        final Writer writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+        if (format == TransactionExportFormat.CSV) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+        }
+
+        final long[] count = new long[1];
+        try {
+            jdbcTemplate.query(sql.toString(), resultSet -> {
+                final MensaMaxTransaction transaction = readTransaction(resultSet);
+                try {
+                    writer.write(format == TransactionExportFormat.CSV ? formatCsvLine(transaction) : GSON.toJson(transaction));
+                    writer.write('\n');
+                } catch (final IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+                count[0]++;
+            }, parameters.toArray());
+        } catch (final UncheckedIOException e) {
+            // Mostly the client going away in the middle of the export
+            throw e.getCause();
+        }
+        writer.flush();
+
+        log.info("Exported {} transactions as {} in {}ms", count[0], format, System.currentTimeMillis() - startTime);
+    }
+
+    private MensaMaxTransaction readTransaction(final ResultSet resultSet) throws SQLException {
+        final Timestamp recordedAt = resultSet.getTimestamp("recorded_at");
+        final Timestamp performedAt = resultSet.getTimestamp("performed_at");
+        return new MensaMaxTransaction(resultSet.getLong("id"), resultSet.getString("username"), resultSet.getString("chip"),
+                resultSet.getString("kiosk"), resultSet.getLong("barcode"), resultSet.getInt("quantity"),
+                TransactionStatus.values()[resultSet.getInt("status")], recordedAt != null ? new Date(recordedAt.getTime()) : null,
+                performedAt != null ? new Date(performedAt.getTime()) : null, resultSet.getString("error"));
+    }
+
+    private String formatCsvLine(final MensaMaxTransaction transaction) {
+        return String.join(",", Long.toString(transaction.getId()), escapeCsv(transaction.getUsername()), escapeCsv(transaction.getChip()),
+                escapeCsv(transaction.getKiosk()), Long.toString(transaction.getBarcode()), Integer.toString(transaction.getQuantity()),
+                transaction.getStatus().name(), formatDate(transaction.getRecordedAt()), formatDate(transaction.getPerformedAt()),
+                escapeCsv(transaction.getError()));
+    }
+
+    private String formatDate(final Date date) {
+        return date != null ? date.toInstant().toString() : "";
+    }
+
+    private String escapeCsv(final String value) {
+        if (value == null) {
+            return "";
+        }
+        if (value.contains(",") || value.contains("\"") || value.contains("\n")) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+}
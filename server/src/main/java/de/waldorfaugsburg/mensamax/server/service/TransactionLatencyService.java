@@ -0,0 +1,73 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import com.google.common.math.Quantiles;
+import com.google.common.primitives.ImmutableLongArray;
+import de.waldorfaugsburg.mensamax.server.entity.TransactionTraceConverter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionLatency;
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+
+import javax.sql.DataSource;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregates the stored traces into latency percentiles per kiosk and step. Besides the checkout steps there are the
+ * pseudo steps "queue" for the time until a worker picked the transaction up and "total" for the time until it was
+ * performed.
+ */
+@Service
+public class TransactionLatencyService {
+
+    private static final int FETCH_SIZE = 500;
+    private static final String SELECT_SQL = "SELECT kiosk, recorded_at, performed_at, trace FROM mensa_max_transaction_entity";
+    private static final String QUEUE_STEP = "queue";
+    private static final String TOTAL_STEP = "total";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTraceConverter traceConverter = new TransactionTraceConverter();
+
+    public TransactionLatencyService(final DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(FETCH_SIZE);
+    }
+
+    public List<TransactionLatency> computeLatencies(final TransactionFilter filter) {
+        final StringBuilder sql = new StringBuilder(SELECT_SQL);
+        final List<Object> parameters = new ArrayList<>();
+        TransactionConditions.append(filter, sql, parameters, "trace IS NOT NULL");
+
+        // Sorted maps keep the response stable for the same data
+        final Map<String, Map<String, ImmutableLongArray.Builder>> samples = new TreeMap<>();
+        jdbcTemplate.query(sql.toString(), resultSet -> {
+            final TransactionTrace trace = traceConverter.convertToEntityAttribute(resultSet.getBytes("trace"));
+            final Map<String, ImmutableLongArray.Builder> kioskSamples = samples.computeIfAbsent(resultSet.getString("kiosk"), kiosk -> new TreeMap<>());
+            kioskSamples.computeIfAbsent(QUEUE_STEP, step -> ImmutableLongArray.builder()).add(trace.getQueueWaitMillis());
+            for (final Map.Entry<String, Long> entry : trace.getStepMillis().entrySet()) {
+                kioskSamples.computeIfAbsent(entry.getKey(), step -> ImmutableLongArray.builder()).add(entry.getValue());
+            }
+
+            final Timestamp recordedAt = resultSet.getTimestamp("recorded_at");
+            final Timestamp performedAt = resultSet.getTimestamp("performed_at");
+            if (recordedAt != null && performedAt != null) {
+                kioskSamples.computeIfAbsent(TOTAL_STEP, step -> ImmutableLongArray.builder()).add(performedAt.getTime() - recordedAt.getTime());
+            }
+        }, parameters.toArray());
+
+        final List<TransactionLatency> latencies = new ArrayList<>();
+        for (final Map.Entry<String, Map<String, ImmutableLongArray.Builder>> kioskEntry : samples.entrySet()) {
+            for (final Map.Entry<String, ImmutableLongArray.Builder> stepEntry : kioskEntry.getValue().entrySet()) {
+                final long[] values = stepEntry.getValue().build().toArray();
+                final Map<Integer, Double> percentiles = Quantiles.percentiles().indexes(50, 95, 99).compute(values);
+                latencies.add(new TransactionLatency(kioskEntry.getKey(), stepEntry.getKey(), values.length,
+                        Math.round(percentiles.get(50)), Math.round(percentiles.get(95)), Math.round(percentiles.get(99))));
+            }
+        }
+        return latencies;
+    }
+}
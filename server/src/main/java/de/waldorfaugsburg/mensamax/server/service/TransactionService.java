@@ -1,189 +1,693 @@
 package de.waldorfaugsburg.mensamax.server.service;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import de.waldorfaugsburg.mensamax.server.configuration.CacheConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.MensaMaxConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.TransactionConfigurationProperties;
 import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
 import de.waldorfaugsburg.mensamax.server.exception.*;
 import de.waldorfaugsburg.mensamax.server.repository.TransactionRepository;
+import de.waldorfaugsburg.mensamax.server.repository.TransactionSpecifications;
+import de.waldorfaugsburg.mensamax.server.selenium.ClientPriority;
+import de.waldorfaugsburg.mensamax.server.selenium.PageOutcome;
 import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
 import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransaction;
+import de.waldorfaugsburg.mensamax.transaction.MensaMaxTransactionPage;
+import de.waldorfaugsburg.mensamax.transaction.TransactionFilter;
+import de.waldorfaugsburg.mensamax.transaction.TransactionRequest;
+import de.waldorfaugsburg.mensamax.transaction.TransactionResult;
 import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.GuavaCacheMetrics;
+import io.github.wimdeblauwe.errorhandlingspringbootstarter.ResponseErrorCode;
+import jakarta.annotation.Nullable;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.openqa.selenium.*;
 import org.openqa.selenium.support.ui.ExpectedConditions;
 import org.openqa.selenium.support.ui.Select;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Limit;
+import org.springframework.data.domain.Sort;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
 
 @Service
 @Slf4j
 public class TransactionService {
 
-    private static final String KIOSK_CHIP_URL = MensaMaxService.URL + "/mensamax/Kiosk/Verkauf/VerkaufOeffnenForm.aspx";
-    private static final String KIOSK_BARCODE_URL = MensaMaxService.URL + "/mensamax/Kiosk/Verkauf/VerkaufForm.aspx";
-    private static final String KIOSK_SELECTOR_URL = MensaMaxService.URL + "/mensamax/grafik.aspx";
+    static final String KIOSK_CHIP_PATH = "/mensamax/Kiosk/Verkauf/VerkaufOeffnenForm.aspx";
+    static final String KIOSK_BARCODE_PATH = "/mensamax/Kiosk/Verkauf/VerkaufForm.aspx";
+    private static final String KIOSK_SELECTOR_PATH = "/mensamax/grafik.aspx";
+    private static final By CHIP_STATUS_LOCATOR = By.id("lblStatus");
+    private static final Pattern NON_BLANK_PATTERN = Pattern.compile("\\S");
+    static final int MAX_BATCH_SIZE = 10;
+    private static final int MAX_PAGE_SIZE = 1000;
+    private static final int MAX_RECORD_ATTEMPTS = 2;
 
+    private final TransactionConfigurationProperties properties;
     private final MensaMaxService mensaMaxService;
     private final SeleniumService seleniumService;
+    private final ChipIndexService chipIndexService;
     private final TransactionRepository repository;
+    private final MeterRegistry meterRegistry;
 
-    public TransactionService(final MensaMaxService mensaMaxService, final SeleniumService seleniumService, final TransactionRepository repository) {
+    private final int workerCount;
+    private final ExecutorService workerExecutor;
+    private final ScheduledExecutorService resolverExecutor;
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+
+    private final Cache<@NotNull String, @NotNull Long> recentIdempotencyKeys;
+    private final SingleFlight<String, MensaMaxTransaction> idempotentRecordFlight;
+
+    public TransactionService(final TransactionConfigurationProperties properties, final MensaMaxConfigurationProperties mensaMaxProperties,
+                              final CacheConfigurationProperties cacheProperties, final MensaMaxService mensaMaxService,
+                              final SeleniumService seleniumService, final ChipIndexService chipIndexService,
+                              final TransactionRepository repository, final MeterRegistry meterRegistry) {
+        this.properties = properties;
         this.mensaMaxService = mensaMaxService;
         this.seleniumService = seleniumService;
+        this.chipIndexService = chipIndexService;
         this.repository = repository;
+        this.meterRegistry = meterRegistry;
+
+        // One worker per selenium client, so every browser can perform transactions at the same time
+        this.workerCount = Math.max(1, mensaMaxProperties.effectiveMaxClientCount());
+        this.workerExecutor = Executors.newFixedThreadPool(workerCount, new ThreadFactoryBuilder().setNameFormat("transaction-worker-%d").build());
+        this.resolverExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder().setNameFormat("transaction-resolver").setDaemon(true).build());
+
+        // Retries usually follow within seconds, so most repeated keys are answered without touching the database
+        this.recentIdempotencyKeys = CacheBuilder.newBuilder()
+                .maximumSize(cacheProperties.idempotencyKeyCacheSize())
+                .expireAfterWrite(cacheProperties.idempotencyKeyCacheAge())
+                .recordStats()
+                .build();
+        this.idempotentRecordFlight = new SingleFlight<>("idempotency-key", meterRegistry);
+        GuavaCacheMetrics.monitor(meterRegistry, recentIdempotencyKeys, "idempotency-keys");
+
+        Gauge.builder("mensamax.transactions.backlog", repository, r -> r.countByStatus(TransactionStatus.PENDING)).register(meterRegistry);
+        Gauge.builder("mensamax.transactions.in-flight", inFlightCount, AtomicInteger::get).register(meterRegistry);
+
+        // Statuses are stored by ordinal, and tables created before UNRESOLVED and PROCESSING existed reject theirs
+        final int droppedCount = repository.dropStatusCheckConstraints();
+        if (droppedCount > 0) {
+            log.info("Dropped {} check constraint(s) of the transaction status", droppedCount);
+        }
+
+        // Transactions still claimed by a previous run have never been finished
+        final int releasedCount = repository.replaceStatus(TransactionStatus.PROCESSING, TransactionStatus.PENDING);
+        if (releasedCount > 0) {
+            log.warn("Released {} unfinished transaction(s) of a previous run", releasedCount);
+        }
+    }
+
+    @PostConstruct
+    public void startResolver() {
+        // Resolving chips blocks on MensaMax, so it mustn't hold up dispatching on the shared scheduler thread
+        resolverExecutor.scheduleWithFixedDelay(this::resolvePendingTransactions, 10, 1, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        resolverExecutor.shutdownNow();
+        workerExecutor.shutdown();
+        if (!workerExecutor.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.warn("Transaction workers didn't finish in time");
+        }
+    }
+
+    private void resolvePendingTransactions() {
+        try {
+            for (final MensaMaxTransactionEntity transaction : repository.findAllByStatusAndUsernameIsNull(TransactionStatus.PENDING)) {
+                try {
+                    transaction.setUsername(chipIndexService.findUsernameByChip(transaction.getChip()));
+                    repository.save(transaction);
+                } catch (final InvalidChipException e) {
+                    transaction.setPerformedAt(Instant.now());
+                    transaction.setStatus(TransactionStatus.UNRESOLVED);
+                    repository.save(transaction);
+                } catch (final Exception e) {
+                    // Leave transaction untouched, it will be retried during the next run
+                    log.warn("Could not resolve chip '{}' of transaction '{}'", transaction.getChip(), transaction.getId(), e);
+                }
+            }
+        } catch (final Exception e) {
+            // An exception escaping the task would cancel all further runs
+            log.error("Error resolving pending transactions", e);
+        }
     }
 
-    @Scheduled(fixedRate = 10_000, initialDelay = 10_000)
+    @Scheduled(fixedDelay = 1_000, initialDelay = 10_000)
     private void handlePendingTransactions() {
-        for (final MensaMaxTransactionEntity transaction : repository.findAllByStatus(TransactionStatus.PENDING)) {
-            try {
-                performTransaction(transaction);
-                transaction.setPerformedAt(Instant.now());
-                transaction.setStatus(TransactionStatus.SUCCESS);
-                repository.save(transaction);
-            } catch (final Exception e) {
-                transaction.setPerformedAt(Instant.now());
-                transaction.setStatus(TransactionStatus.FAILED);
-                repository.save(transaction);
+        final int freeWorkerCount = workerCount - inFlightCount.get();
+        if (freeWorkerCount <= 0) {
+            return;
+        }
+
+        final List<MensaMaxTransactionEntity> transactions = repository.findAllByStatusAndUsernameIsNotNullOrderByIdAsc(TransactionStatus.PENDING, Limit.of(freeWorkerCount * MAX_BATCH_SIZE));
+        int dispatchedCount = 0;
+        for (final List<MensaMaxTransactionEntity> batch : groupIntoBatches(transactions, properties.batchWindow())) {
+            if (dispatchedCount >= freeWorkerCount) {
+                break;
             }
+
+            // Keep the batch open until its window has passed as more sales of the same chip may follow
+            if (batch.getFirst().getRecordedAt().plus(properties.batchWindow()).isAfter(Instant.now())) {
+                continue;
+            }
+
+            // Only the caller switching the status from PENDING to PROCESSING may perform the transaction
+            final List<MensaMaxTransactionEntity> claimedBatch = new ArrayList<>();
+            for (final MensaMaxTransactionEntity transaction : batch) {
+                if (repository.compareAndSetStatus(transaction.getId(), TransactionStatus.PENDING, TransactionStatus.PROCESSING) == 1) {
+                    transaction.setStatus(TransactionStatus.PROCESSING);
+                    claimedBatch.add(transaction);
+                }
+            }
+
+            if (claimedBatch.isEmpty()) {
+                continue;
+            }
+
+            dispatchedCount++;
+            inFlightCount.incrementAndGet();
+            workerExecutor.execute(() -> handleClaimedTransactions(claimedBatch));
         }
     }
 
-    public List<MensaMaxTransaction> fetchAllTransactions() {
-        return StreamSupport.stream(repository.findAll().spliterator(), false).map(MensaMaxTransactionEntity::asModel).toList();
+    @VisibleForTesting
+    static Collection<List<MensaMaxTransactionEntity>> groupIntoBatches(final List<MensaMaxTransactionEntity> transactions, final Duration batchWindow) {
+        final Map<String, List<MensaMaxTransactionEntity>> openBatches = new HashMap<>();
+        final List<List<MensaMaxTransactionEntity>> batches = new ArrayList<>();
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            final String batchKey = transaction.getChip() + "@" + transaction.getKiosk();
+            final List<MensaMaxTransactionEntity> openBatch = openBatches.get(batchKey);
+            if (openBatch != null && openBatch.size() < MAX_BATCH_SIZE
+                    && !transaction.getRecordedAt().isAfter(openBatch.getFirst().getRecordedAt().plus(batchWindow))) {
+                openBatch.add(transaction);
+                continue;
+            }
+
+            final List<MensaMaxTransactionEntity> batch = new ArrayList<>();
+            batch.add(transaction);
+            openBatches.put(batchKey, batch);
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    @VisibleForTesting
+    void handleClaimedTransactions(final List<MensaMaxTransactionEntity> transactions) {
+        final Instant startedAt = Instant.now();
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            final TransactionTrace trace = new TransactionTrace();
+            trace.setQueueWaitMillis(Duration.between(transaction.getRecordedAt(), startedAt).toMillis());
+            transaction.setTrace(trace);
+        }
+
+        final List<MensaMaxTransactionEntity> remainingTransactions = new ArrayList<>(transactions);
+        try {
+            while (!remainingTransactions.isEmpty()) {
+                try {
+                    performCheckout(remainingTransactions);
+                    finishTransactions(remainingTransactions, TransactionStatus.SUCCESS, null);
+                    remainingTransactions.clear();
+                } catch (final CheckoutItemException e) {
+                    // Nothing has been paid and the sale has been abandoned, so the other items can be retried in a new checkout
+                    finishTransactions(List.of(e.getTransaction()), TransactionStatus.FAILED, e.getCause());
+                    remainingTransactions.remove(e.getTransaction());
+                }
+            }
+        } catch (final NoClientsAvailableException e) {
+            // Nothing happened yet, so it's safe to try again later
+            for (final MensaMaxTransactionEntity transaction : remainingTransactions) {
+                repository.compareAndSetStatus(transaction.getId(), TransactionStatus.PROCESSING, TransactionStatus.PENDING);
+            }
+        } catch (final Exception e) {
+            finishTransactions(remainingTransactions, TransactionStatus.FAILED, e);
+        } finally {
+            inFlightCount.decrementAndGet();
+        }
+    }
+
+    private void finishTransactions(final List<MensaMaxTransactionEntity> transactions, final TransactionStatus status, final Throwable error) {
+        final Instant performedAt = Instant.now();
+        final String errorCode = error != null ? resolveErrorCode(error) : null;
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            transaction.setPerformedAt(performedAt);
+            transaction.setStatus(status);
+            transaction.setError(errorCode);
+            if (transaction.getTrace() != null && error != null) {
+                transaction.getTrace().setErrorClass(error.getClass().getSimpleName());
+            }
+        }
+        repository.saveAll(transactions);
+
+        final String statusTag = status.name().toLowerCase(Locale.ROOT);
+        Counter.builder("mensamax.transactions.finished").tag("status", statusTag).tag("error", errorCode != null ? errorCode : "none")
+                .register(meterRegistry).increment(transactions.size());
+
+        // Time from the kiosk's request until MensaMax charged the account, including queueing and batching
+        final Timer latencyTimer = Timer.builder("mensamax.transactions.latency").tag("status", statusTag).publishPercentileHistogram().register(meterRegistry);
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            latencyTimer.record(Duration.between(transaction.getRecordedAt(), performedAt));
+        }
+    }
+
+    private String resolveErrorCode(final Throwable error) {
+        final ResponseErrorCode errorCode = error.getClass().getAnnotation(ResponseErrorCode.class);
+        return errorCode != null ? errorCode.value() : error.getClass().getSimpleName();
+    }
+
+    public MensaMaxTransactionPage fetchTransactions(final TransactionFilter filter, @Nullable final Long afterId, final int limit) {
+        final int pageSize = Math.clamp(limit, 1, MAX_PAGE_SIZE);
+
+        // One more row than requested tells whether there is another page without counting
+        final List<MensaMaxTransactionEntity> entities = repository.findBy(TransactionSpecifications.matching(filter, afterId),
+                query -> query.sortBy(Sort.by("id")).limit(pageSize + 1).all());
+        final boolean hasNextPage = entities.size() > pageSize;
+        final List<MensaMaxTransaction> transactions = entities.stream().limit(pageSize).map(MensaMaxTransactionEntity::asModel).toList();
+        return new MensaMaxTransactionPage(transactions, hasNextPage ? transactions.getLast().getId() : null);
     }
 
     public MensaMaxTransaction fetchTransactionById(final long id) {
         return repository.findById(id).orElseThrow(TransactionNotFoundException::new).asModel();
     }
 
-    public List<MensaMaxTransaction> fetchAllTransactionsByStatus(final TransactionStatus status) {
-        return repository.streamAllByStatus(status).map(MensaMaxTransactionEntity::asModel).toList();
+    @Nullable
+    public TransactionTrace fetchTransactionTrace(final long id) {
+        return repository.findById(id).orElseThrow(TransactionNotFoundException::new).getTrace();
     }
 
     public void deleteTransactionById(final long id) {
         repository.deleteById(id);
     }
 
-    public void recordTransaction(final String chip, final String kiosk, final long barcode, final int quantity) {
+    public boolean isAsyncIntake() {
+        return properties.asyncIntake();
+    }
+
+    public MensaMaxTransaction recordTransaction(final String chip, final String kiosk, final long barcode, final int quantity,
+                                                 @Nullable final String idempotencyKey) {
+        if (idempotencyKey == null) {
+            return recordTransaction(chip, kiosk, barcode, quantity);
+        }
+
+        // A retry arriving while the original request is still being recorded waits for its result
+        return idempotentRecordFlight.execute(idempotencyKey, () -> {
+            final MensaMaxTransaction recordedTransaction = findTransactionByIdempotencyKey(idempotencyKey);
+            if (recordedTransaction != null) {
+                log.info("Transaction with idempotency key '{}' has already been recorded as '{}'", idempotencyKey, recordedTransaction.getId());
+                return recordedTransaction;
+            }
+
+            final MensaMaxTransactionEntity entity = createTransaction(chip, kiosk, barcode, quantity);
+            entity.setIdempotencyKey(idempotencyKey);
+            try {
+                final MensaMaxTransactionEntity savedEntity = repository.save(entity);
+                recentIdempotencyKeys.put(idempotencyKey, savedEntity.getId());
+                return savedEntity.asModel();
+            } catch (final DataIntegrityViolationException e) {
+                // Recorded by another instance in the meantime, the unique index kept the sale from being recorded twice
+                final MensaMaxTransaction concurrentTransaction = findTransactionByIdempotencyKey(idempotencyKey);
+                if (concurrentTransaction == null) {
+                    throw e;
+                }
+                return concurrentTransaction;
+            }
+        });
+    }
+
+    public MensaMaxTransaction recordTransaction(final String chip, final String kiosk, final long barcode, final int quantity) {
+        return repository.save(createTransaction(chip, kiosk, barcode, quantity)).asModel();
+    }
+
+    private MensaMaxTransactionEntity createTransaction(final String chip, final String kiosk, final long barcode, final int quantity) {
         final MensaMaxTransactionEntity entity = new MensaMaxTransactionEntity();
-        entity.setUsername(mensaMaxService.findUsernameByChip(chip));
+        if (properties.asyncIntake()) {
+            // Unknown chips are resolved in the background, see resolvePendingTransactions
+            entity.setUsername(chipIndexService.findCachedUsernameByChip(chip).orElse(null));
+        } else {
+            entity.setUsername(chipIndexService.findUsernameByChip(chip));
+        }
         entity.setChip(chip);
         entity.setKiosk(kiosk);
         entity.setBarcode(barcode);
         entity.setQuantity(quantity);
         entity.setStatus(TransactionStatus.PENDING);
         entity.setRecordedAt(Instant.now());
-        repository.save(entity);
+        return entity;
     }
 
-    private void performTransaction(final MensaMaxTransactionEntity entity) {
-        final SeleniumClient client = mensaMaxService.getClientStack().obtainClient();
-        final WebDriver webDriver = client.getWebDriver();
-        try {
-            mensaMaxService.login(client);
-            final String currentKiosk = client.getCurrentKiosk();
-            if (currentKiosk == null || !currentKiosk.equals(entity.getKiosk())) {
-                webDriver.get(KIOSK_SELECTOR_URL);
-
-                final Select kioskSelect = new Select(seleniumService.waitUntilElementPresent(webDriver, By.id("cboKiosk")));
-                for (int i = 0; i < kioskSelect.getOptions().size(); i++) {
-                    final WebElement element = kioskSelect.getOptions().get(i);
-                    if (element.getText().equalsIgnoreCase(entity.getKiosk())) {
-                        kioskSelect.selectByIndex(i);
-                        client.setCurrentKiosk(entity.getKiosk());
-                        webDriver.switchTo().alert().accept();
-
-                        log.info("Client '{}' switched to kiosk '{}'", client.getInstanceId(), entity.getKiosk());
-                        break;
-                    }
-                }
+    @Nullable
+    private MensaMaxTransaction findTransactionByIdempotencyKey(final String idempotencyKey) {
+        final Long cachedId = recentIdempotencyKeys.getIfPresent(idempotencyKey);
+        if (cachedId != null) {
+            final Optional<MensaMaxTransactionEntity> cachedEntity = repository.findById(cachedId);
+            if (cachedEntity.isPresent()) {
+                return cachedEntity.get().asModel();
             }
+            // Deleted in the meantime, so the key is free again
+            recentIdempotencyKeys.invalidate(idempotencyKey);
+        }
 
-            webDriver.get(KIOSK_CHIP_URL);
+        final Optional<MensaMaxTransactionEntity> storedEntity = repository.findByIdempotencyKey(idempotencyKey);
+        storedEntity.ifPresent(entity -> recentIdempotencyKeys.put(idempotencyKey, entity.getId()));
+        return storedEntity.map(MensaMaxTransactionEntity::asModel).orElse(null);
+    }
 
-            final WebElement identifierElement = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBarcode"));
-            identifierElement.sendKeys(entity.getChip(), Keys.ENTER);
+    public List<TransactionResult> recordTransactions(final List<TransactionRequest> requests) {
+        return recordTransactions(requests, 1);
+    }
 
-            try {
-                seleniumService.waitUntil(webDriver, ExpectedConditions.urlToBe(KIOSK_BARCODE_URL));
-            } catch (final TimeoutException ignored) {
+    private List<TransactionResult> recordTransactions(final List<TransactionRequest> requests, final int attempt) {
+        final TransactionResult[] results = new TransactionResult[requests.size()];
+
+        // Retried batches must not record a sale twice
+        final Map<String, MensaMaxTransaction> recordedByKey = new HashMap<>();
+        final Set<String> idempotencyKeys = new HashSet<>();
+        for (final TransactionRequest request : requests) {
+            if (request.getIdempotencyKey() != null) {
+                idempotencyKeys.add(request.getIdempotencyKey());
             }
+        }
+        if (!idempotencyKeys.isEmpty()) {
+            for (final MensaMaxTransactionEntity entity : repository.findAllByIdempotencyKeyIn(idempotencyKeys)) {
+                recordedByKey.put(entity.getIdempotencyKey(), entity.asModel());
+            }
+        }
 
+        // Every chip is resolved once, no matter how many items were sold to it
+        final Map<String, String> usernameByChip = new HashMap<>();
+        final Map<String, String> errorByChip = new HashMap<>();
+        for (final TransactionRequest request : requests) {
+            final String chip = request.getChip();
+            if (usernameByChip.containsKey(chip) || errorByChip.containsKey(chip)) {
+                continue;
+            }
+            if (properties.asyncIntake()) {
+                // Unknown chips are resolved in the background, see resolvePendingTransactions
+                usernameByChip.put(chip, chipIndexService.findCachedUsernameByChip(chip).orElse(null));
+                continue;
+            }
             try {
-                final WebElement statusElement = seleniumService.waitUntilElementPresent(webDriver, By.id("lblStatus"));
-                throw new InvalidChipException(entity.getChip(), statusElement.getText());
-            } catch (final TimeoutException ignored) {
-            }
-
-            for (int i = 0; i < entity.getQuantity(); i++) {
-                final WebElement barcodeElement = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBarcode"));
-                barcodeElement.sendKeys(Long.toString(entity.getBarcode()), Keys.ENTER);
-
-                final String sourceStringProductSelection = retrieveDialogSourceString(webDriver);
-                if (sourceStringProductSelection != null) {
-                    if (sourceStringProductSelection.contains("identifiziert")) {
-                        throw new InvalidProductException(entity.getBarcode(), entity.getKiosk());
-                    } else if (sourceStringProductSelection.contains("Kreditrahmen")) {
-                        throw new AccountOverdrawnException();
-                    } else if (sourceStringProductSelection.contains("Lagerbestand")) {
-                        throw new NoStockException(entity.getBarcode(), entity.getKiosk());
-                    } else if (sourceStringProductSelection.contains("Tageslimit")) {
-                        throw new AccountDailyLimitException();
-                    } else {
-                        throw new UnknownErrorException(sourceStringProductSelection);
-                    }
-                }
+                usernameByChip.put(chip, chipIndexService.findUsernameByChip(chip));
+            } catch (final RuntimeException e) {
+                errorByChip.put(chip, resolveErrorCode(e));
+            }
+        }
+
+        final Instant recordedAt = Instant.now();
+        final List<MensaMaxTransactionEntity> entities = new ArrayList<>();
+        final Map<MensaMaxTransactionEntity, Integer> indexByEntity = new IdentityHashMap<>();
+        final Map<String, MensaMaxTransactionEntity> pendingByKey = new HashMap<>();
+        final Map<Integer, String> duplicateKeyByIndex = new HashMap<>();
+        for (int i = 0; i < requests.size(); i++) {
+            final TransactionRequest request = requests.get(i);
+            final String idempotencyKey = request.getIdempotencyKey();
+            final MensaMaxTransaction recordedTransaction = idempotencyKey != null ? recordedByKey.get(idempotencyKey) : null;
+            if (recordedTransaction != null) {
+                results[i] = new TransactionResult(recordedTransaction, null);
+                continue;
+            }
+            if (idempotencyKey != null && pendingByKey.containsKey(idempotencyKey)) {
+                duplicateKeyByIndex.put(i, idempotencyKey);
+                continue;
+            }
+
+            final String error = errorByChip.get(request.getChip());
+            if (error != null) {
+                results[i] = new TransactionResult(null, error);
+                continue;
+            }
+
+            final MensaMaxTransactionEntity entity = new MensaMaxTransactionEntity();
+            entity.setUsername(usernameByChip.get(request.getChip()));
+            entity.setChip(request.getChip());
+            entity.setKiosk(request.getKiosk());
+            entity.setBarcode(request.getBarcode());
+            entity.setQuantity(request.getQuantity());
+            entity.setStatus(TransactionStatus.PENDING);
+            entity.setRecordedAt(recordedAt);
+            entity.setIdempotencyKey(idempotencyKey);
+            entities.add(entity);
+            indexByEntity.put(entity, i);
+            if (idempotencyKey != null) {
+                pendingByKey.put(idempotencyKey, entity);
+            }
+        }
+
+        try {
+            repository.insertAll(entities);
+        } catch (final DuplicateKeyException e) {
+            // A concurrent retry of the same batch won the race, hand out what it recorded instead. The insert was rolled
+            // back as a whole, so the retry records the sales without a key again
+            if (attempt >= MAX_RECORD_ATTEMPTS) {
+                throw e;
+            }
+            log.warn("Batch of {} transaction(s) collided with concurrently recorded idempotency keys, retrying", entities.size());
+            return recordTransactions(requests, attempt + 1);
+        }
+
+        for (final MensaMaxTransactionEntity entity : entities) {
+            results[indexByEntity.get(entity)] = new TransactionResult(entity.asModel(), null);
+            if (entity.getIdempotencyKey() != null) {
+                recentIdempotencyKeys.put(entity.getIdempotencyKey(), entity.getId());
             }
+        }
+        for (final Map.Entry<Integer, String> entry : duplicateKeyByIndex.entrySet()) {
+            results[entry.getKey()] = new TransactionResult(pendingByKey.get(entry.getValue()).asModel(), null);
+        }
+        return Arrays.asList(results);
+    }
 
-            // Let's spend some money
-            seleniumService.click(webDriver, By.id("btnPay"));
+    private void performCheckout(final List<MensaMaxTransactionEntity> transactions) {
+        final MensaMaxTransactionEntity firstTransaction = transactions.getFirst();
+        final String chip = firstTransaction.getChip();
+        final String kiosk = firstTransaction.getKiosk();
 
-            final String sourceStringPayment = retrieveDialogSourceString(webDriver);
-            if (sourceStringPayment != null) {
-                throw new UnknownErrorException(sourceStringPayment);
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            transaction.getTrace().setAttempts(transaction.getTrace().getAttempts() + 1);
+        }
+
+        // Waiting for a client is already measured by the client stack, it's only traced here
+        final long obtainStartTime = System.nanoTime();
+        final SeleniumClient client = mensaMaxService.getClientStack().obtainClient(ClientPriority.BACKGROUND, kiosk);
+        final long obtainMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - obtainStartTime);
+        for (final MensaMaxTransactionEntity transaction : transactions) {
+            transaction.getTrace().addStep("obtain-client", obtainMillis);
+            transaction.getTrace().setClientId(client.getInstanceId());
+        }
+
+        final WebDriver webDriver = client.getWebDriver();
+        final long startTime = System.nanoTime();
+        String outcome = "error";
+        boolean saleOpen = false;
+        try {
+            timeStep("login", transactions, () -> mensaMaxService.login(client));
+            final String currentKiosk = client.getCurrentKiosk();
+            if (currentKiosk == null || !currentKiosk.equals(kiosk)) {
+                timeStep("kiosk-switch", transactions, () -> switchKiosk(client, kiosk));
             }
 
-            log.info("Processed transaction for product '{}' by user '{}' (Chip: {})", entity.getBarcode(), entity.getUsername(), entity.getChip());
+            saleOpen = true;
+            timeStep("chip-entry", transactions, () -> enterChip(webDriver, chip));
+
+            // Scan all items of the batch and pay them at once
+            for (final MensaMaxTransactionEntity transaction : transactions) {
+                try {
+                    timeStep("product-scan", List.of(transaction), () -> scanProduct(webDriver, transaction));
+                } catch (final RuntimeException e) {
+                    throw new CheckoutItemException(transaction, e);
+                }
+            }
+
+            timeStep("payment", transactions, () -> pay(webDriver, firstTransaction));
+            saleOpen = false;
+            outcome = "success";
+
+            for (final MensaMaxTransactionEntity transaction : transactions) {
+                log.info("Processed transaction for product '{}' by user '{}' (Chip: {})", transaction.getBarcode(), transaction.getUsername(), chip);
+            }
+        } catch (final CheckoutItemException e) {
+            outcome = resolveErrorCode(e.getCause());
+            log.error("An error occurred while performing transaction", e);
+            throw e;
         } catch (final Exception e) {
+            outcome = resolveErrorCode(e);
             log.error("An error occurred while performing transaction", e);
             throw e;
         } finally {
+            if (saleOpen) {
+                abandonSale(client);
+            }
             mensaMaxService.getClientStack().returnClient(client);
+            Timer.builder("mensamax.checkout").tag("outcome", outcome).publishPercentileHistogram().register(meterRegistry)
+                    .record(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void abandonSale(final SeleniumClient client) {
+        // Scanned items stay in the cart until the sale is paid, so the sale is left before anybody else gets the client
+        final WebDriver webDriver = client.getWebDriver();
+        try {
+            webDriver.get(mensaMaxService.url(KIOSK_CHIP_PATH));
+            seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBarcode"));
+        } catch (final WebDriverException e) {
+            // Logging in again starts a new session without the open sale
+            log.warn("Client '{}' couldn't abandon the open sale, logging in again next time", client.getInstanceId(), e);
+            client.setLastActionDate(0);
+        }
+    }
+
+    private void switchKiosk(final SeleniumClient client, final String kiosk) {
+        final WebDriver webDriver = client.getWebDriver();
+        webDriver.get(mensaMaxService.url(KIOSK_SELECTOR_PATH));
+
+        final Select kioskSelect = new Select(seleniumService.waitUntilElementPresent(webDriver, By.id("cboKiosk")));
+        for (int i = 0; i < kioskSelect.getOptions().size(); i++) {
+            final WebElement element = kioskSelect.getOptions().get(i);
+            if (element.getText().equalsIgnoreCase(kiosk)) {
+                kioskSelect.selectByIndex(i);
+                client.setCurrentKiosk(kiosk);
+                webDriver.switchTo().alert().accept();
+
+                log.info("Client '{}' switched to kiosk '{}'", client.getInstanceId(), kiosk);
+                break;
+            }
         }
     }
 
-    private String retrieveDialogSourceString(final WebDriver webDriver) {
+    private void enterChip(final WebDriver webDriver, final String chip) {
+        webDriver.get(mensaMaxService.url(KIOSK_CHIP_PATH));
+
+        final WebElement identifierElement = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBarcode"));
+        identifierElement.sendKeys(chip, Keys.ENTER);
+
+        // Valid chips lead to the barcode page, invalid ones leave a status message on the chip page. Products must never
+        // be scanned on the chip page, so this waits for either answer with the full timeout
+        final String barcodeUrl = mensaMaxService.url(KIOSK_BARCODE_PATH);
+        seleniumService.waitUntil(webDriver, "chip-entry", ExpectedConditions.or(ExpectedConditions.urlToBe(barcodeUrl),
+                ExpectedConditions.textMatches(CHIP_STATUS_LOCATOR, NON_BLANK_PATTERN)));
+        if (!barcodeUrl.equals(webDriver.getCurrentUrl())) {
+            throw new InvalidChipException(chip, webDriver.findElement(CHIP_STATUS_LOCATOR).getText());
+        }
+    }
+
+    private void pay(final WebDriver webDriver, final MensaMaxTransactionEntity firstTransaction) {
+        // Let's spend some money
+        final WebElement payElement = seleniumService.waitUntilElementPresent(webDriver, By.id("btnPay"));
+        final String marker = seleniumService.markPage(webDriver);
+        payElement.click();
+
+        final PageOutcome paymentOutcome = seleniumService.detectPageOutcome(webDriver, "payment", marker);
+        final CheckoutOutcome checkoutOutcome = CheckoutOutcome.of(paymentOutcome);
+        if (checkoutOutcome != CheckoutOutcome.SUCCESS) {
+            throw checkoutOutcome.toException(firstTransaction, paymentOutcome);
+        }
+    }
+
+    private void timeStep(final String step, final List<MensaMaxTransactionEntity> transactions, final Runnable action) {
+        final long startTime = System.nanoTime();
+        boolean succeeded = false;
         try {
-            final List<WebElement> frames = seleniumService.waitUntilElementsPresent(webDriver, By.className("iFrameHinweis"));
-            if (!frames.isEmpty()) {
-                final WebElement frame = frames.getFirst();
-                webDriver.switchTo().frame(frame);
+            action.run();
+            succeeded = true;
+        } finally {
+            final long duration = System.nanoTime() - startTime;
+            Timer.builder("mensamax.checkout.step").tag("step", step).tag("result", succeeded ? "success" : "error")
+                    .publishPercentileHistogram().register(meterRegistry).record(duration, TimeUnit.NANOSECONDS);
+            for (final MensaMaxTransactionEntity transaction : transactions) {
+                transaction.getTrace().addStep(step, TimeUnit.NANOSECONDS.toMillis(duration));
+            }
+        }
+    }
 
-                try {
-                    final List<WebElement> contentItems = seleniumService.waitUntilElementsPresent(webDriver, By.className("hinweis-dialog-content"));
-                    if (!contentItems.isEmpty()) {
-                        final WebElement contentItem = contentItems.getFirst();
-                        return contentItem.getText();
-                    }
-                } catch (TimeoutException ignored) {
-                }
+    private void scanProduct(final WebDriver webDriver, final MensaMaxTransactionEntity entity) {
+        final String barcode = Long.toString(entity.getBarcode());
+        final List<WebElement> quantityElements = properties.quantityInputId() != null ? webDriver.findElements(By.id(properties.quantityInputId())) : List.of();
 
-                try {
-                    final List<WebElement> noticeItems = seleniumService.waitUntilElementsPresent(webDriver, By.className("TerminalHinweis"));
-                    if (!noticeItems.isEmpty()) {
-                        final WebElement noticeItem = noticeItems.getFirst();
-                        return noticeItem.getText();
+        // The outcome belongs to the last submitted unit, so the page is marked right before every submit
+        String marker = null;
+        WebDriverException sendException = null;
+        try {
+            if (!quantityElements.isEmpty()) {
+                seleniumService.clearAndSendKeys(webDriver, By.id(properties.quantityInputId()), Integer.toString(entity.getQuantity()));
+                marker = seleniumService.markPage(webDriver);
+                seleniumService.clearAndSendKeys(webDriver, By.id("tbxBarcode"), barcode, Keys.ENTER);
+            } else {
+                // Scan all units back to back and look for dialogs only once at the end
+                for (int i = 0; i < entity.getQuantity(); i++) {
+                    if (i > 0) {
+                        // Typing into an input that still holds the previous barcode would submit both as one, so a unit
+                        // that isn't processed in time aborts the scan
+                        seleniumService.waitUntil(webDriver, "product-scan-unit", this::isBarcodeInputReady);
                     }
-                } catch (TimeoutException ignored) {
+                    final WebElement barcodeElement = seleniumService.waitUntilElementPresent(webDriver, By.id("tbxBarcode"));
+                    marker = seleniumService.markPage(webDriver);
+                    barcodeElement.sendKeys(barcode, Keys.ENTER);
                 }
             }
-        } catch (final TimeoutException ignored) {
+        } catch (final WebDriverException e) {
+            // A dialog of an earlier unit may cover the input, the outcome below tells which one
+            sendException = e;
         }
 
-        webDriver.switchTo().defaultContent();
-        return null;
+        final PageOutcome scanOutcome = seleniumService.detectPageOutcome(webDriver, "product-scan", marker);
+        final CheckoutOutcome checkoutOutcome = CheckoutOutcome.of(scanOutcome);
+        if (checkoutOutcome != CheckoutOutcome.SUCCESS) {
+            throw checkoutOutcome.toException(entity, scanOutcome);
+        }
+        if (sendException != null) {
+            throw sendException;
+        }
+    }
+
+    private boolean isBarcodeInputReady(final WebDriver webDriver) {
+        // The postback of the previous scan empties the input once it has been processed
+        final List<WebElement> barcodeElements = webDriver.findElements(By.id("tbxBarcode"));
+        if (barcodeElements.isEmpty()) {
+            return false;
+        }
+
+        try {
+            final String value = barcodeElements.getFirst().getDomProperty("value");
+            return value == null || value.isEmpty();
+        } catch (final StaleElementReferenceException e) {
+            // Replaced by the postback in the meantime, check the new one on the next poll
+            return false;
+        }
+    }
+
+    @Getter
+    private static final class CheckoutItemException extends RuntimeException {
+
+        private final MensaMaxTransactionEntity transaction;
+
+        private CheckoutItemException(final MensaMaxTransactionEntity transaction, final RuntimeException cause) {
+            super(cause);
+            this.transaction = transaction;
+        }
     }
-}
\ No newline at end of file
+}
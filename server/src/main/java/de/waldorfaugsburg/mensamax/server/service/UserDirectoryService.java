@@ -0,0 +1,81 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxUserEntity;
+import de.waldorfaugsburg.mensamax.server.repository.UserRepository;
+import jakarta.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Service;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory copy of the MensaMax person list, indexed by username and employee id. The store is persisted so lookups
+ * are served from it right after a restart. Chips are indexed separately by the {@link ChipIndexService}.
+ */
+@Service
+@Slf4j
+public class UserDirectoryService {
+
+    private final Map<String, MensaMaxUserEntity> usersByUsername = new ConcurrentHashMap<>();
+    private final Map<Integer, String> usernamesByEmployeeId = new ConcurrentHashMap<>();
+
+    private final UserRepository userRepository;
+
+    public UserDirectoryService(final UserRepository userRepository) {
+        this.userRepository = userRepository;
+
+        for (final MensaMaxUserEntity entity : userRepository.findAll()) {
+            index(entity);
+        }
+        log.info("Loaded {} users into directory", usersByUsername.size());
+    }
+
+    public Optional<MensaMaxUser> findUserByUsername(final String username) {
+        return Optional.ofNullable(usersByUsername.get(username)).map(MensaMaxUserEntity::asModel);
+    }
+
+    public Optional<MensaMaxUser> findUserByEmployeeId(final int employeeId) {
+        return Optional.ofNullable(usernamesByEmployeeId.get(employeeId)).flatMap(this::findUserByUsername);
+    }
+
+    public Collection<MensaMaxUserEntity> getEntries() {
+        return List.copyOf(usersByUsername.values());
+    }
+
+    public void putUser(final MensaMaxUser user) {
+        // Keep what the last sync knew about the person, the next sync compares against it
+        final MensaMaxUserEntity existingEntity = usersByUsername.get(user.getUsername());
+        putUser(user, existingEntity != null ? existingEntity.getPersonId() : null, existingEntity != null ? existingEntity.getFingerprint() : null);
+    }
+
+    public synchronized void putUser(final MensaMaxUser user, @Nullable final Integer personId, @Nullable final String fingerprint) {
+        final MensaMaxUserEntity entity = userRepository.save(MensaMaxUserEntity.fromModel(user, personId, fingerprint));
+        unindex(entity.getUsername());
+        index(entity);
+    }
+
+    public synchronized void removeUser(final String username) {
+        userRepository.deleteById(username);
+        unindex(username);
+        log.info("Removed user '{}' from directory", username);
+    }
+
+    private void index(final MensaMaxUserEntity entity) {
+        usersByUsername.put(entity.getUsername(), entity);
+        if (entity.getEmployeeId() != 0) {
+            usernamesByEmployeeId.put(entity.getEmployeeId(), entity.getUsername());
+        }
+    }
+
+    private void unindex(final String username) {
+        final MensaMaxUserEntity entity = usersByUsername.remove(username);
+        if (entity != null && entity.getEmployeeId() != 0) {
+            usernamesByEmployeeId.remove(entity.getEmployeeId(), username);
+        }
+    }
+}
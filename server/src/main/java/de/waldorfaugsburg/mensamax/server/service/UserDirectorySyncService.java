@@ -0,0 +1,101 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import de.waldorfaugsburg.mensamax.common.MensaMaxUser;
+import de.waldorfaugsburg.mensamax.server.configuration.DirectoryConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxUserEntity;
+import de.waldorfaugsburg.mensamax.server.lookup.PersonListEntry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+@Service
+@Slf4j
+public class UserDirectorySyncService {
+
+    private final DirectoryConfigurationProperties properties;
+    private final MensaMaxService mensaMaxService;
+    private final UserDirectoryService userDirectoryService;
+
+    public UserDirectorySyncService(final DirectoryConfigurationProperties properties, final MensaMaxService mensaMaxService,
+                                    final UserDirectoryService userDirectoryService) {
+        this.properties = properties;
+        this.mensaMaxService = mensaMaxService;
+        this.userDirectoryService = userDirectoryService;
+    }
+
+    @Scheduled(initialDelayString = "${directory.sync-initial-delay:1m}", fixedDelayString = "${directory.sync-interval:6h}")
+    public void synchronizeUsers() {
+        // Opt-in, as the person list is always scraped by the HTTP lookup engine, whichever engine serves lookups
+        if (!properties.syncEnabled()) {
+            return;
+        }
+
+        final long startMillis = System.currentTimeMillis();
+        final List<PersonListEntry> listEntries;
+        try {
+            listEntries = mensaMaxService.listPersons();
+        } catch (final Exception e) {
+            log.error("Couldn't list persons for directory sync", e);
+            return;
+        }
+
+        // An empty list is far more likely a broken page than an empty school
+        if (listEntries.isEmpty()) {
+            log.warn("Person list is empty, keeping directory as it is");
+            return;
+        }
+
+        final Map<Integer, MensaMaxUserEntity> entitiesByPersonId = new HashMap<>();
+        for (final MensaMaxUserEntity entity : userDirectoryService.getEntries()) {
+            if (entity.getPersonId() != null) {
+                entitiesByPersonId.put(entity.getPersonId(), entity);
+            }
+        }
+
+        int updatedCount = 0;
+        int failedCount = 0;
+        final Set<Integer> listedPersonIds = new HashSet<>();
+        for (final PersonListEntry listEntry : listEntries) {
+            listedPersonIds.add(listEntry.personId());
+
+            final MensaMaxUserEntity existingEntity = entitiesByPersonId.get(listEntry.personId());
+            if (existingEntity != null && Objects.equals(existingEntity.getFingerprint(), listEntry.fingerprint())) {
+                continue;
+            }
+
+            try {
+                final MensaMaxUser user = mensaMaxService.findUserByPersonId(listEntry.personId());
+                if (existingEntity != null && !existingEntity.getUsername().equals(user.getUsername())) {
+                    userDirectoryService.removeUser(existingEntity.getUsername());
+                    mensaMaxService.invalidateUser(existingEntity.asModel());
+                }
+
+                userDirectoryService.putUser(user, listEntry.personId(), listEntry.fingerprint());
+                mensaMaxService.invalidateUser(user);
+                updatedCount++;
+            } catch (final Exception e) {
+                log.warn("Couldn't synchronize person {}", listEntry.personId(), e);
+                failedCount++;
+            }
+        }
+
+        int removedCount = 0;
+        for (final MensaMaxUserEntity entity : entitiesByPersonId.values()) {
+            if (!listedPersonIds.contains(entity.getPersonId())) {
+                userDirectoryService.removeUser(entity.getUsername());
+                mensaMaxService.invalidateUser(entity.asModel());
+                removedCount++;
+            }
+        }
+
+        log.info("Synchronized {} persons in {}ms ({} updated, {} removed, {} failed)", listEntries.size(),
+                System.currentTimeMillis() - startMillis, updatedCount, removedCount, failedCount);
+    }
+}
@@ -0,0 +1,93 @@
+package de.waldorfaugsburg.mensamax.server.entity;
+
+import de.waldorfaugsburg.mensamax.transaction.TransactionTrace;
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionTraceConverterTest {
+
+    private final TransactionTraceConverter converter = new TransactionTraceConverter();
+
+    @Test
+    void roundTripsTrace() {
+        final TransactionTrace trace = new TransactionTrace();
+        trace.setQueueWaitMillis(1_234_567);
+        trace.setClientId(3);
+        trace.setAttempts(2);
+        trace.addStep("obtain-client", 12);
+        trace.addStep("chip-entry", 345);
+        trace.addStep("product-scan", 6_789);
+        trace.addStep("payment", 0);
+        trace.setErrorClass("NoStockException");
+
+        assertThat(roundTrip(trace)).isEqualTo(trace);
+    }
+
+    @Test
+    void roundTripsUnknownStepsByName() {
+        final TransactionTrace trace = new TransactionTrace();
+        trace.addStep("login", 100);
+        trace.addStep("receipt-print", 200);
+
+        assertThat(roundTrip(trace).getStepMillis()).containsExactly(Map.entry("login", 100L), Map.entry("receipt-print", 200L));
+    }
+
+    @Test
+    void keepsFirstClientApartFromNoClient() {
+        final TransactionTrace firstClient = new TransactionTrace();
+        firstClient.setClientId(0);
+        assertThat(roundTrip(firstClient).getClientId()).isZero();
+
+        assertThat(roundTrip(new TransactionTrace()).getClientId()).isNull();
+    }
+
+    @Test
+    void convertsNullBothWays() {
+        assertThat(converter.convertToDatabaseColumn(null)).isNull();
+        assertThat(converter.convertToEntityAttribute(null)).isNull();
+    }
+
+    @Test
+    void cutsLongErrorClassWithoutBreakingCharacters() {
+        final TransactionTrace trace = new TransactionTrace();
+        trace.setErrorClass("Ä".repeat(1_000));
+
+        final String errorClass = roundTrip(trace).getErrorClass();
+        assertThat(errorClass).isNotEmpty().matches("Ä+");
+        assertThat(errorClass.length()).isLessThan(1_000);
+    }
+
+    @Test
+    void staysWithinMaximumLength() {
+        final Map<String, Long> stepMillis = new LinkedHashMap<>();
+        stepMillis.put("payment", Long.MAX_VALUE);
+        for (int i = 0; i < 100; i++) {
+            stepMillis.put(i + "-" + "x".repeat(300), Long.MAX_VALUE);
+        }
+        final TransactionTrace trace = new TransactionTrace(Long.MAX_VALUE, Integer.MAX_VALUE - 1, Integer.MAX_VALUE, stepMillis, "x".repeat(5_000));
+
+        final byte[] data = converter.convertToDatabaseColumn(trace);
+        assertThat(data).hasSizeLessThanOrEqualTo(TransactionTraceConverter.MAX_LENGTH);
+
+        // Unknown steps that no longer fit are left out
+        final TransactionTrace storedTrace = converter.convertToEntityAttribute(data);
+        assertThat(storedTrace.getStepMillis()).containsEntry("payment", Long.MAX_VALUE).hasSizeBetween(2, stepMillis.size() - 1);
+        assertThat(storedTrace.getErrorClass()).isNotEmpty();
+        assertThat(storedTrace.getAttempts()).isEqualTo(Integer.MAX_VALUE);
+    }
+
+    @Test
+    void rejectsUnknownVersion() {
+        assertThatThrownBy(() -> converter.convertToEntityAttribute(new byte[]{2, 0, 0, 0, 0, 0}))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private TransactionTrace roundTrip(final TransactionTrace trace) {
+        return converter.convertToEntityAttribute(converter.convertToDatabaseColumn(trace));
+    }
+}
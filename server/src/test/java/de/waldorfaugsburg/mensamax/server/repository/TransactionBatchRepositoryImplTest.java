@@ -0,0 +1,70 @@
+package de.waldorfaugsburg.mensamax.server.repository;
+
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.UUID;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TransactionBatchRepositoryImplTest {
+
+    private JdbcTemplate jdbcTemplate;
+    private TransactionBatchRepositoryImpl repository;
+
+    @BeforeEach
+    void createDatabase() {
+        final DriverManagerDataSource dataSource = new DriverManagerDataSource("jdbc:h2:mem:" + UUID.randomUUID() + ";DB_CLOSE_DELAY=-1");
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        repository = new TransactionBatchRepositoryImpl(dataSource);
+
+        // The table as Hibernate created it while there were only PENDING, SUCCESS and FAILED
+        jdbcTemplate.execute("CREATE TABLE mensa_max_transaction_entity (id BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY, "
+                + "username VARCHAR(255), chip VARCHAR(255), kiosk VARCHAR(255), barcode BIGINT NOT NULL, quantity INTEGER NOT NULL, "
+                + "status TINYINT CHECK (status BETWEEN 0 AND 2), recorded_at TIMESTAMP(6) WITH TIME ZONE, "
+                + "performed_at TIMESTAMP(6) WITH TIME ZONE, error VARCHAR(255), idempotency_key VARCHAR(255) UNIQUE)");
+    }
+
+    @Test
+    void keepsOrdinalsOfStoredStatuses() {
+        // Reordering the statuses would silently change the meaning of every stored transaction
+        assertThat(TransactionStatus.values()).extracting(TransactionStatus::ordinal)
+                .containsExactly(0, 1, 2, 3, 4);
+        assertThat(TransactionStatus.values())
+                .containsExactly(TransactionStatus.PENDING, TransactionStatus.SUCCESS, TransactionStatus.FAILED,
+                        TransactionStatus.UNRESOLVED, TransactionStatus.PROCESSING);
+    }
+
+    @Test
+    void storesAppendedStatusesAfterDroppingOutdatedCheckConstraint() {
+        assertThatThrownBy(() -> repository.insertAll(List.of(transaction(TransactionStatus.PROCESSING))))
+                .isInstanceOf(DataIntegrityViolationException.class);
+
+        assertThat(repository.dropStatusCheckConstraints()).isOne();
+        final List<MensaMaxTransactionEntity> transactions = List.of(transaction(TransactionStatus.UNRESOLVED), transaction(TransactionStatus.PROCESSING));
+        repository.insertAll(transactions);
+
+        assertThat(jdbcTemplate.queryForList("SELECT status FROM mensa_max_transaction_entity ORDER BY id", Integer.class))
+                .containsExactly(TransactionStatus.UNRESOLVED.ordinal(), TransactionStatus.PROCESSING.ordinal());
+        assertThat(repository.dropStatusCheckConstraints()).isZero();
+    }
+
+    private MensaMaxTransactionEntity transaction(final TransactionStatus status) {
+        final MensaMaxTransactionEntity transaction = new MensaMaxTransactionEntity();
+        transaction.setChip("chip-a");
+        transaction.setKiosk("Mensa");
+        transaction.setBarcode(4_000_000_000_000L);
+        transaction.setQuantity(1);
+        transaction.setStatus(status);
+        transaction.setRecordedAt(Instant.parse("2026-01-12T11:30:00Z"));
+        return transaction;
+    }
+}
@@ -0,0 +1,118 @@
+package de.waldorfaugsburg.mensamax.server.selenium;
+
+import de.waldorfaugsburg.mensamax.server.exception.NoClientsAvailableException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class SeleniumClientStackTest {
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final List<SeleniumClientStack> stacks = new ArrayList<>();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+        stacks.forEach(SeleniumClientStack::close);
+    }
+
+    @Test
+    void servesHigherPrioritiesFirstAndEachPriorityInOrderOfArrival() throws Exception {
+        final SeleniumClientStack stack = createStack(null);
+        final SeleniumClient client = stack.obtainClient(ClientPriority.INTERACTIVE);
+
+        // Every request gives the client back right away, so it's passed along the waiting requests one by one
+        final BlockingQueue<String> servedRequests = new LinkedBlockingQueue<>();
+        startWaitingRequest(stack, ClientPriority.ADMIN, "admin", servedRequests);
+        startWaitingRequest(stack, ClientPriority.BACKGROUND, "background", servedRequests);
+        startWaitingRequest(stack, ClientPriority.INTERACTIVE, "first-interactive", servedRequests);
+        startWaitingRequest(stack, ClientPriority.INTERACTIVE, "second-interactive", servedRequests);
+
+        stack.returnClient(client);
+        final List<String> order = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            order.add(servedRequests.poll(5, TimeUnit.SECONDS));
+        }
+        assertThat(order).containsExactly("first-interactive", "second-interactive", "background", "admin");
+    }
+
+    @Test
+    void requestGivesUpAtItsOwnDeadline() {
+        final SeleniumClientStack stack = createStack(null);
+        stack.obtainClient(ClientPriority.BACKGROUND);
+
+        final long startTime = System.nanoTime();
+        assertThatThrownBy(() -> stack.obtainClient(ClientPriority.BACKGROUND, null, Duration.ofMillis(100)))
+                .isInstanceOf(NoClientsAvailableException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - startTime))
+                .isGreaterThanOrEqualTo(Duration.ofMillis(100))
+                .isLessThan(ClientPriority.BACKGROUND.getDefaultObtainTimeout());
+    }
+
+    @Test
+    void usesConfiguredTimeoutOfPriority() {
+        final SeleniumClientStack stack = createStack(Map.of(ClientPriority.INTERACTIVE, Duration.ofMillis(100)));
+        stack.obtainClient(ClientPriority.INTERACTIVE);
+
+        final long startTime = System.nanoTime();
+        assertThatThrownBy(() -> stack.obtainClient(ClientPriority.INTERACTIVE)).isInstanceOf(NoClientsAvailableException.class);
+        assertThat(Duration.ofNanos(System.nanoTime() - startTime)).isLessThan(ClientPriority.INTERACTIVE.getDefaultObtainTimeout());
+    }
+
+    @Test
+    void expiredRequestDoesNotKeepReturnedClient() {
+        final SeleniumClientStack stack = createStack(null);
+        final SeleniumClient client = stack.obtainClient(ClientPriority.INTERACTIVE);
+        assertThatThrownBy(() -> stack.obtainClient(ClientPriority.INTERACTIVE, null, Duration.ofMillis(50)))
+                .isInstanceOf(NoClientsAvailableException.class);
+
+        stack.returnClient(client);
+        assertThat(stack.obtainClient(ClientPriority.INTERACTIVE, null, Duration.ZERO)).isSameAs(client);
+    }
+
+    private SeleniumClientStack createStack(final Map<ClientPriority, Duration> obtainTimeouts) {
+        // A single client, so every further request has to wait for it
+        final SeleniumClientStack stack = new SeleniumClientStack(() -> mock(SeleniumClient.class), 1, 1, Duration.ofMinutes(5),
+                obtainTimeouts, meterRegistry);
+        stacks.add(stack);
+        return stack;
+    }
+
+    private void startWaitingRequest(final SeleniumClientStack stack, final ClientPriority priority, final String name,
+                                     final BlockingQueue<String> servedRequests) throws InterruptedException {
+        final double waitingCount = countWaitingRequests(priority);
+        executor.execute(() -> {
+            final SeleniumClient client = stack.obtainClient(priority);
+            servedRequests.add(name);
+            stack.returnClient(client);
+        });
+
+        // Requests have to arrive one after another for their order to be defined
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (countWaitingRequests(priority) <= waitingCount) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    private double countWaitingRequests(final ClientPriority priority) {
+        return meterRegistry.get("selenium.clients.waiting").tag("priority", priority.name().toLowerCase(Locale.ROOT)).gauge().value();
+    }
+}
@@ -0,0 +1,26 @@
+package de.waldorfaugsburg.mensamax.server.selenium;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class WaitProfilesTest {
+
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(3);
+
+    @Test
+    void usesConfiguredTimeoutOfStepOrDefault() {
+        final WaitProfiles profiles = new WaitProfiles(DEFAULT_TIMEOUT, Map.of("payment", Duration.ofSeconds(10)));
+        assertThat(profiles.getTimeout("payment")).isEqualTo(Duration.ofSeconds(10));
+        assertThat(profiles.getTimeout("chip-entry")).isEqualTo(DEFAULT_TIMEOUT);
+    }
+
+    @Test
+    void usesDefaultTimeoutWithoutConfiguredSteps() {
+        final WaitProfiles profiles = new WaitProfiles(DEFAULT_TIMEOUT, null);
+        assertThat(profiles.getTimeout("payment")).isEqualTo(DEFAULT_TIMEOUT);
+    }
+}
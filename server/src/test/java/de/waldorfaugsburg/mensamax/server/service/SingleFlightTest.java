@@ -0,0 +1,140 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SingleFlightTest {
+
+    private static final int WAITER_COUNT = 4;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final SingleFlight<String, String> singleFlight = new SingleFlight<>("test", meterRegistry);
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void shutdown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void concurrentCallsForTheSameKeyShareOneExecution() throws Exception {
+        final AtomicInteger executionCount = new AtomicInteger();
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<String>> results = startConcurrentCalls("chip", () -> {
+            executionCount.incrementAndGet();
+            await(release);
+            return "max.mustermann";
+        });
+
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertThat(result.get(5, TimeUnit.SECONDS)).isEqualTo("max.mustermann");
+        }
+        assertThat(executionCount).hasValue(1);
+    }
+
+    @Test
+    void waitersReceiveTheExceptionOfTheExecution() throws Exception {
+        final IllegalStateException failure = new IllegalStateException("MensaMax is down");
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<String>> results = startConcurrentCalls("chip", () -> {
+            await(release);
+            throw failure;
+        });
+
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).cause().isSameAs(failure);
+        }
+    }
+
+    @Test
+    void waitersReceiveErrorsUnwrapped() throws Exception {
+        final AssertionError failure = new AssertionError("out of memory");
+        final CountDownLatch release = new CountDownLatch(1);
+        final List<Future<String>> results = startConcurrentCalls("chip", () -> {
+            await(release);
+            throw failure;
+        });
+
+        release.countDown();
+        for (final Future<String> result : results) {
+            assertThatThrownBy(() -> result.get(5, TimeUnit.SECONDS)).isInstanceOf(ExecutionException.class).cause().isSameAs(failure);
+        }
+    }
+
+    @Test
+    void differentKeysAreExecutedSeparately() {
+        assertThat(singleFlight.execute("first", () -> "a")).isEqualTo("a");
+        assertThat(singleFlight.execute("second", () -> "b")).isEqualTo("b");
+        assertThat(coalescedCount()).isZero();
+    }
+
+    @Test
+    void finishedCallsAreNotRemembered() {
+        final AtomicInteger executionCount = new AtomicInteger();
+        assertThatThrownBy(() -> singleFlight.execute("chip", () -> {
+            executionCount.incrementAndGet();
+            throw new IllegalStateException("MensaMax is down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        assertThat(singleFlight.execute("chip", () -> {
+            executionCount.incrementAndGet();
+            return "max.mustermann";
+        })).isEqualTo("max.mustermann");
+        assertThat(executionCount).hasValue(2);
+    }
+
+    private List<Future<String>> startConcurrentCalls(final String key, final Supplier<String> call) throws InterruptedException {
+        final CountDownLatch started = new CountDownLatch(1);
+        final List<Future<String>> results = new ArrayList<>();
+        results.add(executor.submit(() -> singleFlight.execute(key, () -> {
+            started.countDown();
+            return call.get();
+        })));
+        assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+        for (int i = 0; i < WAITER_COUNT; i++) {
+            results.add(executor.submit(() -> singleFlight.execute(key, () -> {
+                throw new AssertionError("Call executed twice");
+            })));
+        }
+
+        // Waiters are counted right before they start waiting for the running call
+        final long deadline = System.currentTimeMillis() + 5_000;
+        while (coalescedCount() < WAITER_COUNT) {
+            assertThat(System.currentTimeMillis()).isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        return results;
+    }
+
+    private double coalescedCount() {
+        return meterRegistry.get("mensamax.lookups.coalesced").tag("lookup", "test").counter().count();
+    }
+
+    private static void await(final CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
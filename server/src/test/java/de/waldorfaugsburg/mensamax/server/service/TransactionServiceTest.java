@@ -0,0 +1,158 @@
+package de.waldorfaugsburg.mensamax.server.service;
+
+import de.waldorfaugsburg.mensamax.server.configuration.CacheConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.MensaMaxConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.configuration.TransactionConfigurationProperties;
+import de.waldorfaugsburg.mensamax.server.entity.MensaMaxTransactionEntity;
+import de.waldorfaugsburg.mensamax.server.lookup.UserLookupEngineType;
+import de.waldorfaugsburg.mensamax.server.repository.TransactionRepository;
+import de.waldorfaugsburg.mensamax.server.selenium.PageOutcome;
+import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClient;
+import de.waldorfaugsburg.mensamax.server.selenium.SeleniumClientStack;
+import de.waldorfaugsburg.mensamax.transaction.TransactionStatus;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebElement;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.calls;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class TransactionServiceTest {
+
+    private static final Instant START = Instant.parse("2026-01-12T11:30:00Z");
+    private static final Duration WINDOW = Duration.ofSeconds(2);
+
+    private long nextId = 1;
+
+    @Test
+    void groupsSalesOfTheSameChipAndKiosk() {
+        final MensaMaxTransactionEntity first = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity otherChip = sale("chip-b", "Mensa", 100);
+        final MensaMaxTransactionEntity second = sale("chip-a", "Mensa", 200);
+        final MensaMaxTransactionEntity otherKiosk = sale("chip-a", "Pausenverkauf", 300);
+
+        assertThat(TransactionService.groupIntoBatches(List.of(first, otherChip, second, otherKiosk), WINDOW))
+                .containsExactly(List.of(first, second), List.of(otherChip), List.of(otherKiosk));
+    }
+
+    @Test
+    void includesSalesRecordedExactlyAtTheEndOfTheWindow() {
+        final MensaMaxTransactionEntity first = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity last = sale("chip-a", "Mensa", WINDOW.toMillis());
+
+        assertThat(TransactionService.groupIntoBatches(List.of(first, last), WINDOW)).containsExactly(List.of(first, last));
+    }
+
+    @Test
+    void startsNewBatchAfterTheWindow() {
+        final MensaMaxTransactionEntity first = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity late = sale("chip-a", "Mensa", WINDOW.toMillis() + 1);
+        final MensaMaxTransactionEntity later = sale("chip-a", "Mensa", WINDOW.toMillis() + 500);
+
+        // The window is measured from the first sale of a batch, not from the previous sale
+        assertThat(TransactionService.groupIntoBatches(List.of(first, late, later), WINDOW))
+                .containsExactly(List.of(first), List.of(late, later));
+    }
+
+    @Test
+    void splitsBatchesAtMaximumSize() {
+        final List<MensaMaxTransactionEntity> sales = new ArrayList<>();
+        for (int i = 0; i < TransactionService.MAX_BATCH_SIZE + 2; i++) {
+            sales.add(sale("chip-a", "Mensa", i));
+        }
+
+        assertThat(TransactionService.groupIntoBatches(sales, WINDOW))
+                .containsExactly(sales.subList(0, TransactionService.MAX_BATCH_SIZE), sales.subList(TransactionService.MAX_BATCH_SIZE, sales.size()));
+    }
+
+    @Test
+    void zeroWindowOnlyGroupsSimultaneousSales() {
+        final MensaMaxTransactionEntity first = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity simultaneous = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity next = sale("chip-a", "Mensa", 1);
+
+        assertThat(TransactionService.groupIntoBatches(List.of(first, simultaneous, next), Duration.ZERO))
+                .containsExactly(List.of(first, simultaneous), List.of(next));
+    }
+
+    @Test
+    void returnsNoBatchesWithoutSales() {
+        assertThat(TransactionService.groupIntoBatches(List.of(), WINDOW)).isEmpty();
+    }
+
+    @Test
+    void abandonsSaleBeforeRetryingTheItemsAfterAFailedOne() throws Exception {
+        final MensaMaxService mensaMaxService = mock(MensaMaxService.class);
+        final SeleniumService seleniumService = mock(SeleniumService.class);
+        final SeleniumClientStack clientStack = mock(SeleniumClientStack.class);
+        final SeleniumClient client = mock(SeleniumClient.class);
+        final WebDriver webDriver = mock(WebDriver.class);
+        when(mensaMaxService.getClientStack()).thenReturn(clientStack);
+        when(mensaMaxService.url(anyString())).thenAnswer(invocation -> invocation.getArgument(0));
+        when(clientStack.obtainClient(any(), any())).thenReturn(client);
+        when(client.getWebDriver()).thenReturn(webDriver);
+        when(client.getCurrentKiosk()).thenReturn("Mensa");
+        when(webDriver.getCurrentUrl()).thenReturn(TransactionService.KIOSK_BARCODE_PATH);
+        when(seleniumService.waitUntilElementPresent(any(), any())).thenReturn(mock(WebElement.class));
+
+        // MensaMax doesn't know the second item, the retry then scans the first and the last one again
+        final PageOutcome settled = new PageOutcome(PageOutcome.Type.SETTLED, null);
+        when(seleniumService.detectPageOutcome(any(), eq("product-scan"), any()))
+                .thenReturn(settled, new PageOutcome(PageOutcome.Type.DIALOG, "Der Artikel konnte nicht identifiziert werden."), settled, settled);
+        when(seleniumService.detectPageOutcome(any(), eq("payment"), any())).thenReturn(new PageOutcome(PageOutcome.Type.NAVIGATED, null));
+
+        final TransactionService service = new TransactionService(new TransactionConfigurationProperties(false, WINDOW, null),
+                new MensaMaxConfigurationProperties("http://localhost", null, null, null, null, 1, 1, UserLookupEngineType.SELENIUM),
+                new CacheConfigurationProperties(1, Duration.ofDays(7), 1, Duration.ofHours(1), Duration.ofHours(8), 1, Duration.ofMinutes(5), 1, Duration.ofHours(24)),
+                mensaMaxService, seleniumService, mock(ChipIndexService.class), mock(TransactionRepository.class), new SimpleMeterRegistry());
+        final MensaMaxTransactionEntity first = sale("chip-a", "Mensa", 0);
+        final MensaMaxTransactionEntity unknown = sale("chip-a", "Mensa", 100);
+        final MensaMaxTransactionEntity last = sale("chip-a", "Mensa", 200);
+        try {
+            service.handleClaimedTransactions(List.of(first, unknown, last));
+        } finally {
+            service.shutdown();
+        }
+
+        assertThat(first.getStatus()).isEqualTo(TransactionStatus.SUCCESS);
+        assertThat(unknown.getStatus()).isEqualTo(TransactionStatus.FAILED);
+        assertThat(unknown.getError()).isEqualTo("INVALID_PRODUCT");
+        assertThat(last.getStatus()).isEqualTo(TransactionStatus.SUCCESS);
+
+        // The filled cart is left on the client it was filled on, the paid retry doesn't need to
+        final InOrder inOrder = inOrder(webDriver, clientStack);
+        inOrder.verify(webDriver, calls(2)).get(TransactionService.KIOSK_CHIP_PATH);
+        inOrder.verify(clientStack).returnClient(client);
+        inOrder.verify(webDriver).get(TransactionService.KIOSK_CHIP_PATH);
+        inOrder.verify(clientStack).returnClient(client);
+        verify(webDriver, times(3)).get(TransactionService.KIOSK_CHIP_PATH);
+    }
+
+    private MensaMaxTransactionEntity sale(final String chip, final String kiosk, final long offsetMillis) {
+        final MensaMaxTransactionEntity transaction = new MensaMaxTransactionEntity();
+        transaction.setId(nextId++);
+        transaction.setUsername("max.mustermann");
+        transaction.setChip(chip);
+        transaction.setKiosk(kiosk);
+        transaction.setBarcode(4_000_000_000_000L);
+        transaction.setQuantity(1);
+        transaction.setStatus(TransactionStatus.PENDING);
+        transaction.setRecordedAt(START.plusMillis(offsetMillis));
+        return transaction;
+    }
+}
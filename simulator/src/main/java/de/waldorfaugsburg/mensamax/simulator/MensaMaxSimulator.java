@@ -0,0 +1,401 @@
+package de.waldorfaugsburg.mensamax.simulator;
+
+import com.google.common.base.Strings;
+import com.google.common.html.HtmlEscapers;
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+
+/**
+ * Local stand-in for the MensaMax web application. It serves simplified copies of the ASP.NET pages used by the
+ * server, including their element ids, hidden VIEWSTATE fields and postbacks, and answers with a configurable latency.
+ */
+@Slf4j
+public final class MensaMaxSimulator implements Closeable {
+
+    private static final Gson GSON = new Gson();
+    private static final String SESSION_COOKIE_NAME = "ASP.NET_SessionId";
+    private static final String INDEX_PATH = "/mensamax/index.aspx";
+    private static final String PERSON_SEARCH_PATH = "/mensamax/Formulare/Person/PersonSucheForm.aspx";
+    private static final String PERSON_DATA_PATH = "/mensamax/Formulare/Person/PersonDatenForm.aspx";
+    private static final int PERSON_LIST_PAGE_SIZE = 50;
+    private static final String PERSON_EMAIL_PATH = "/mensamax/Formulare/Person/PersonEMailForm.aspx";
+    private static final String KIOSK_SELECTOR_PATH = "/mensamax/grafik.aspx";
+    private static final String KIOSK_CHIP_PATH = "/mensamax/Kiosk/Verkauf/VerkaufOeffnenForm.aspx";
+    private static final String KIOSK_BARCODE_PATH = "/mensamax/Kiosk/Verkauf/VerkaufForm.aspx";
+    private static final String KIOSK_NOTICE_PATH = "/mensamax/Kiosk/Hinweis.aspx";
+    public static final List<String> KIOSKS = List.of("Pausenverkauf", "Mensa");
+
+    private final Map<String, SimulatorSession> sessions = new ConcurrentHashMap<>();
+    private final Map<String, String> pageTemplates = new ConcurrentHashMap<>();
+    @Getter
+    private final List<SimulatedPerson> persons;
+    @Getter
+    private final List<SimulatedProduct> products;
+    private final Duration latency;
+    private final HttpServer server;
+
+    public MensaMaxSimulator(final int port, final Duration latency) throws IOException {
+        this(port, latency, loadDefaultPersons());
+    }
+
+    public MensaMaxSimulator(final int port, final Duration latency, final List<SimulatedPerson> persons) throws IOException {
+        this(port, latency, persons, loadDefaultProducts());
+    }
+
+    public MensaMaxSimulator(final int port, final Duration latency, final List<SimulatedPerson> persons, final List<SimulatedProduct> products) throws IOException {
+        this.persons = List.copyOf(persons);
+        this.products = List.copyOf(products);
+        this.latency = latency;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        this.server.setExecutor(Executors.newCachedThreadPool());
+        this.server.createContext("/", this::handle);
+    }
+
+    public static void main(final String[] args) throws IOException {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : 8089;
+        final Duration latency = args.length > 1 ? Duration.ofMillis(Long.parseLong(args[1])) : Duration.ZERO;
+
+        final MensaMaxSimulator simulator = new MensaMaxSimulator(port, latency);
+        simulator.start();
+        log.info("MensaMax simulator listening on {} with {}ms latency", simulator.getUrl(), latency.toMillis());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(final HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!latency.isZero()) {
+                Thread.sleep(latency.toMillis());
+            }
+
+            final SimulatorSession session = resolveSession(exchange);
+            final String path = exchange.getRequestURI().getPath();
+            final boolean post = exchange.getRequestMethod().equalsIgnoreCase("POST");
+            final Map<String, String> formData = post ? parseForm(exchange) : Map.of();
+            if (post && !formData.containsKey("__VIEWSTATE")) {
+                // Just like ASP.NET, refuse postbacks without state
+                respond(exchange, 500, "Missing __VIEWSTATE");
+                return;
+            }
+
+            if (path.equals("/")) {
+                if (post) {
+                    session.setLoggedIn(true);
+                    redirect(exchange, INDEX_PATH);
+                } else {
+                    respondPage(exchange, "login", Map.of());
+                }
+                return;
+            }
+
+            if (!session.isLoggedIn()) {
+                redirect(exchange, "/");
+                return;
+            }
+
+            switch (path) {
+                case INDEX_PATH -> respondPage(exchange, "index", Map.of());
+                case PERSON_SEARCH_PATH -> handlePersonSearch(exchange, session, post, formData);
+                case PERSON_DATA_PATH -> handlePersonData(exchange, session);
+                case PERSON_EMAIL_PATH -> respondPage(exchange, "person-email", describePerson(session.getCurrentPerson()));
+                case KIOSK_SELECTOR_PATH -> handleKioskSelection(exchange, session, post, formData);
+                case KIOSK_CHIP_PATH -> handleChipEntry(exchange, session, post, formData);
+                case KIOSK_BARCODE_PATH -> handleSale(exchange, session, post, formData);
+                case KIOSK_NOTICE_PATH -> respondPage(exchange, "kiosk-notice", Map.of("text", parseQuery(exchange).getOrDefault("text", "")));
+                default -> respond(exchange, 404, "Not found");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final Exception e) {
+            log.error("Error handling {}", exchange.getRequestURI(), e);
+            respond(exchange, 500, e.getMessage());
+        }
+    }
+
+    private void handlePersonSearch(final HttpExchange exchange, final SimulatorSession session, final boolean post, final Map<String, String> formData) throws IOException {
+        if (!post) {
+            respondPage(exchange, "person-search", Map.of());
+            return;
+        }
+
+        // An empty search lists everybody, page by page
+        final String eventArgument = formData.getOrDefault("__EVENTARGUMENT", "");
+        if (eventArgument.startsWith("Page$")) {
+            respondPersonList(exchange, Integer.parseInt(eventArgument.substring("Page$".length())));
+            return;
+        }
+        if (formData.containsKey("btnSuchen") && Strings.isNullOrEmpty(formData.get("tbloginname")) && Strings.isNullOrEmpty(formData.get("tbxPersonalnummer"))) {
+            respondPersonList(exchange, 1);
+            return;
+        }
+
+        final Optional<SimulatedPerson> person = persons.stream().filter(candidate ->
+                matches(formData.get("tbloginname"), candidate.username())
+                        || matches(formData.get("tbxPersonalnummer"), Integer.toString(candidate.employeeId()))
+                        || matches(formData.get("tbxBarcodeSuche"), candidate.chip())).findFirst();
+        if (person.isEmpty()) {
+            respondPage(exchange, "person-search", Map.of(), "<span id=\"lblKeineTreffer\">Es wurden keine Personen gefunden</span>");
+            return;
+        }
+
+        session.setCurrentPerson(person.get());
+        redirect(exchange, PERSON_DATA_PATH);
+    }
+
+    private void respondPersonList(final HttpExchange exchange, final int page) throws IOException {
+        final StringBuilder results = new StringBuilder("<table id=\"gvPersonen\">");
+        final int firstIndex = (page - 1) * PERSON_LIST_PAGE_SIZE;
+        for (int i = firstIndex; i < Math.min(persons.size(), firstIndex + PERSON_LIST_PAGE_SIZE); i++) {
+            final SimulatedPerson person = persons.get(i);
+            results.append("<tr><td><a href=\"PersonDatenForm.aspx?PersonID=").append(i + 1).append("\">")
+                    .append(HtmlEscapers.htmlEscaper().escape(person.lastName())).append("</a></td><td>")
+                    .append(HtmlEscapers.htmlEscaper().escape(person.firstName())).append("</td><td>")
+                    .append(HtmlEscapers.htmlEscaper().escape(person.userGroup())).append("</td></tr>");
+        }
+
+        final int pageCount = (persons.size() + PERSON_LIST_PAGE_SIZE - 1) / PERSON_LIST_PAGE_SIZE;
+        results.append("<tr><td colspan=\"3\">");
+        for (int i = 1; i <= pageCount; i++) {
+            results.append(i == page ? "<span>" + i + "</span>"
+                    : "<a href=\"javascript:__doPostBack('gvPersonen','Page$" + i + "')\">" + i + "</a>");
+        }
+        results.append("</td></tr></table>");
+        respondPage(exchange, "person-search", Map.of(), results.toString());
+    }
+
+    private void handlePersonData(final HttpExchange exchange, final SimulatorSession session) throws IOException {
+        final String query = exchange.getRequestURI().getQuery();
+        if (query != null && query.startsWith("PersonID=")) {
+            final int personId = Integer.parseInt(query.substring("PersonID=".length()));
+            if (personId < 1 || personId > persons.size()) {
+                respondPage(exchange, "person-data", Map.of());
+                return;
+            }
+            session.setCurrentPerson(persons.get(personId - 1));
+        }
+        respondPage(exchange, "person-data", describePerson(session.getCurrentPerson()));
+    }
+
+    private void handleKioskSelection(final HttpExchange exchange, final SimulatorSession session, final boolean post, final Map<String, String> formData) throws IOException {
+        if (post && formData.containsKey("cboKiosk")) {
+            session.setCurrentKiosk(formData.get("cboKiosk"));
+        }
+
+        final StringBuilder options = new StringBuilder("<option value=\"\">Bitte wählen</option>");
+        for (final String kiosk : KIOSKS) {
+            final String escapedKiosk = HtmlEscapers.htmlEscaper().escape(kiosk);
+            options.append("<option value=\"").append(escapedKiosk).append(kiosk.equals(session.getCurrentKiosk()) ? "\" selected>" : "\">")
+                    .append(escapedKiosk).append("</option>");
+        }
+        respondPage(exchange, "kiosk-select", Map.of(), options.toString());
+    }
+
+    private void handleChipEntry(final HttpExchange exchange, final SimulatorSession session, final boolean post, final Map<String, String> formData) throws IOException {
+        if (!post) {
+            // Opening the chip entry abandons an unpaid sale along with its cart
+            session.getCart().clear();
+            session.setCurrentPerson(null);
+            respondPage(exchange, "kiosk-chip", Map.of());
+            return;
+        }
+
+        final Optional<SimulatedPerson> person = persons.stream().filter(candidate -> matches(formData.get("tbxBarcode"), candidate.chip())).findFirst();
+        if (person.isEmpty()) {
+            respondPage(exchange, "kiosk-chip", Map.of(), "<span id=\"lblStatus\">Chip ist keiner Person zugeordnet</span>");
+            return;
+        }
+
+        session.setCurrentPerson(person.get());
+        session.getCart().clear();
+        redirect(exchange, KIOSK_BARCODE_PATH);
+    }
+
+    private void handleSale(final HttpExchange exchange, final SimulatorSession session, final boolean post, final Map<String, String> formData) throws IOException {
+        if (session.getCurrentPerson() == null) {
+            redirect(exchange, KIOSK_CHIP_PATH);
+            return;
+        }
+
+        String notice = null;
+        if (post && formData.containsKey("btnPay")) {
+            // Paying closes the sale and returns to the chip entry, just like the real kiosk
+            log.debug("Sold {} product(s) to '{}' at kiosk '{}'", session.getCart().size(), session.getCurrentPerson().username(), session.getCurrentKiosk());
+            session.getCart().clear();
+            session.setCurrentPerson(null);
+            redirect(exchange, KIOSK_CHIP_PATH);
+            return;
+        }
+        if (post && !Strings.isNullOrEmpty(formData.get("tbxBarcode"))) {
+            final String barcode = formData.get("tbxBarcode").trim();
+            final Optional<SimulatedProduct> product = products.stream().filter(candidate -> Long.toString(candidate.barcode()).equals(barcode)).findFirst();
+            if (product.isEmpty()) {
+                notice = "Der Artikel konnte nicht identifiziert werden.";
+            } else if (!product.get().inStock()) {
+                notice = "Der Lagerbestand des Artikels reicht nicht aus.";
+            } else {
+                session.getCart().add(product.get());
+            }
+        }
+
+        final StringBuilder results = new StringBuilder("<table id=\"gvWarenkorb\">");
+        for (final SimulatedProduct product : session.getCart()) {
+            results.append("<tr><td>").append(product.barcode()).append("</td><td>")
+                    .append(HtmlEscapers.htmlEscaper().escape(product.name())).append("</td></tr>");
+        }
+        results.append("</table>");
+        if (notice != null) {
+            // Notices are shown in a frame, which is where the server looks for them
+            results.append("<iframe class=\"iFrameHinweis\" src=\"").append(KIOSK_NOTICE_PATH).append("?text=")
+                    .append(URLEncoder.encode(notice, StandardCharsets.UTF_8)).append("\"></iframe>");
+        }
+        respondPage(exchange, "kiosk-sale", describePerson(session.getCurrentPerson()), results.toString());
+    }
+
+    private boolean matches(final String searchValue, final String value) {
+        return searchValue != null && !searchValue.isEmpty() && searchValue.equalsIgnoreCase(value);
+    }
+
+    private Map<String, String> describePerson(final SimulatedPerson person) {
+        if (person == null) {
+            return Map.of();
+        }
+
+        final Map<String, String> values = new HashMap<>();
+        values.put("username", person.username());
+        values.put("firstName", person.firstName());
+        values.put("lastName", person.lastName());
+        values.put("email", person.email());
+        values.put("contactEmails", person.contactEmails());
+        values.put("dateOfBirth", person.dateOfBirth());
+        values.put("userGroup", person.userGroup());
+        values.put("employeeId", Integer.toString(person.employeeId()));
+        return values;
+    }
+
+    private SimulatorSession resolveSession(final HttpExchange exchange) {
+        final String cookieHeader = exchange.getRequestHeaders().getFirst("Cookie");
+        if (cookieHeader != null) {
+            for (final String cookie : cookieHeader.split(";")) {
+                final String[] parts = cookie.trim().split("=", 2);
+                if (parts.length == 2 && parts[0].equals(SESSION_COOKIE_NAME) && sessions.containsKey(parts[1])) {
+                    return sessions.get(parts[1]);
+                }
+            }
+        }
+
+        final SimulatorSession session = new SimulatorSession(UUID.randomUUID().toString());
+        sessions.put(session.getId(), session);
+        exchange.getResponseHeaders().add("Set-Cookie", SESSION_COOKIE_NAME + "=" + session.getId() + "; Path=/; HttpOnly");
+        return session;
+    }
+
+    private Map<String, String> parseQuery(final HttpExchange exchange) {
+        final String query = exchange.getRequestURI().getRawQuery();
+        return query != null ? parseUrlEncoded(query) : Map.of();
+    }
+
+    private Map<String, String> parseForm(final HttpExchange exchange) throws IOException {
+        return parseUrlEncoded(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    private Map<String, String> parseUrlEncoded(final String body) {
+        final Map<String, String> formData = new HashMap<>();
+        for (final String pair : body.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            final String[] parts = pair.split("=", 2);
+            formData.put(URLDecoder.decode(parts[0], StandardCharsets.UTF_8), parts.length > 1 ? URLDecoder.decode(parts[1], StandardCharsets.UTF_8) : "");
+        }
+        return formData;
+    }
+
+    private void respondPage(final HttpExchange exchange, final String page, final Map<String, String> values) throws IOException {
+        respondPage(exchange, page, values, "");
+    }
+
+    private void respondPage(final HttpExchange exchange, final String page, final Map<String, String> values, final String results) throws IOException {
+        String content = pageTemplates.computeIfAbsent(page, MensaMaxSimulator::loadPageTemplate);
+        content = content.replace("${results}", results);
+        content = content.replace("${viewState}", Base64.getEncoder().encodeToString(UUID.randomUUID().toString().getBytes(StandardCharsets.UTF_8)));
+        for (final Map.Entry<String, String> entry : values.entrySet()) {
+            content = content.replace("${" + entry.getKey() + "}", HtmlEscapers.htmlEscaper().escape(Objects.requireNonNullElse(entry.getValue(), "")));
+        }
+        // Unknown placeholders are rendered as empty fields
+        respond(exchange, 200, content.replaceAll("\\$\\{[a-zA-Z]+}", ""));
+    }
+
+    private void redirect(final HttpExchange exchange, final String location) throws IOException {
+        exchange.getResponseHeaders().add("Location", location);
+        exchange.sendResponseHeaders(302, -1);
+    }
+
+    private void respond(final HttpExchange exchange, final int status, final String content) throws IOException {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "text/html; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (final OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static String loadPageTemplate(final String page) {
+        try (final InputStream inputStream = MensaMaxSimulator.class.getResourceAsStream("/pages/" + page + ".html")) {
+            if (inputStream == null) {
+                throw new IllegalArgumentException("Unknown page " + page);
+            }
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static List<SimulatedProduct> loadDefaultProducts() throws IOException {
+        try (final InputStream inputStream = MensaMaxSimulator.class.getResourceAsStream("/products.json")) {
+            if (inputStream == null) {
+                throw new IOException("products.json not found");
+            }
+            return GSON.fromJson(new InputStreamReader(inputStream, StandardCharsets.UTF_8), new TypeToken<List<SimulatedProduct>>() {
+            }.getType());
+        }
+    }
+
+    private static List<SimulatedPerson> loadDefaultPersons() throws IOException {
+        try (final InputStream inputStream = MensaMaxSimulator.class.getResourceAsStream("/persons.json")) {
+            if (inputStream == null) {
+                throw new IOException("persons.json not found");
+            }
+            return GSON.fromJson(new InputStreamReader(inputStream, StandardCharsets.UTF_8), new TypeToken<List<SimulatedPerson>>() {
+            }.getType());
+        }
+    }
+}
@@ -0,0 +1,5 @@
+package de.waldorfaugsburg.mensamax.simulator;
+
+public record SimulatedPerson(String username, String firstName, String lastName, String email, String contactEmails,
+                              String dateOfBirth, String userGroup, int employeeId, String chip) {
+}
@@ -0,0 +1,4 @@
+package de.waldorfaugsburg.mensamax.simulator;
+
+public record SimulatedProduct(long barcode, String name, boolean inStock) {
+}
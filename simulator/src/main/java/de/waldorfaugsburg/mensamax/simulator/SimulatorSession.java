@@ -0,0 +1,22 @@
+package de.waldorfaugsburg.mensamax.simulator;
+
+import lombok.Getter;
+import lombok.Setter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@Getter
+@Setter
+public final class SimulatorSession {
+
+    private final String id;
+    private boolean loggedIn;
+    private SimulatedPerson currentPerson;
+    private String currentKiosk;
+    private final List<SimulatedProduct> cart = new ArrayList<>();
+
+    public SimulatorSession(final String id) {
+        this.id = id;
+    }
+}